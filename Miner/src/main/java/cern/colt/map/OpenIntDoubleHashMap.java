@@ -16,9 +16,6 @@ import cern.colt.list.IntArrayList;
 import com.galaev.genminer.mapred.writables.arrays.ByteArrayWritable;
 import com.galaev.genminer.mapred.writables.arrays.DoubleArrayWritable;
 import com.galaev.genminer.mapred.writables.arrays.IntArrayWritable;
-import org.apache.hadoop.io.ByteWritable;
-import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 
 import java.io.DataInput;
@@ -599,30 +596,10 @@ public class OpenIntDoubleHashMap extends AbstractIntDoubleMap implements Writab
         out.writeInt(highWaterMark);
         out.writeDouble(minLoadFactor);
         out.writeDouble(maxLoadFactor);
-        // write "table"
-        IntWritable[] intWritables = new IntWritable[table.length];
-        for (int i = 0; i < table.length; ++i) {
-            intWritables[i] = new IntWritable(table[i]);
-        }
-        IntArrayWritable tableWritable = new IntArrayWritable();
-        tableWritable.set(intWritables);
-        tableWritable.write(out);
-        // write "values"
-        DoubleWritable[] doubleWritables = new DoubleWritable[values.length];
-        for (int i = 0; i < values.length; ++i) {
-            doubleWritables[i] = new DoubleWritable(values[i]);
-        }
-        DoubleArrayWritable valuesWritable = new DoubleArrayWritable();
-        valuesWritable.set(doubleWritables);
-        valuesWritable.write(out);
-        // write "state"
-        ByteWritable[] byteWritables = new ByteWritable[state.length];
-        for (int i = 0; i < state.length; ++i) {
-            byteWritables[i] = new ByteWritable(state[i]);
-        }
-        ByteArrayWritable stateWritable = new ByteArrayWritable();
-        stateWritable.set(byteWritables);
-        stateWritable.write(out);
+        // write "table", "values" and "state"
+        IntArrayWritable.writeArray(out, table);
+        DoubleArrayWritable.writeArray(out, values);
+        ByteArrayWritable.writeArray(out, state);
     }
 
     @Override
@@ -634,32 +611,9 @@ public class OpenIntDoubleHashMap extends AbstractIntDoubleMap implements Writab
         highWaterMark = in.readInt();
         minLoadFactor = in.readDouble();
         maxLoadFactor = in.readDouble();
-        // read table
-        IntArrayWritable tableWritable = new IntArrayWritable();
-        tableWritable.readFields(in);
-        Writable[] writables = tableWritable.get();
-        table = new int[writables.length];
-        for (int i = 0; i < table.length; ++i) {
-            IntWritable writable = (IntWritable) writables[i];
-            table[i] = writable.get();
-        }
-        // read values
-        DoubleArrayWritable valuesWritable = new DoubleArrayWritable();
-        valuesWritable.readFields(in);
-        writables = valuesWritable.get();
-        values = new double[writables.length];
-        for (int i = 0; i < values.length; ++i) {
-            DoubleWritable writable = (DoubleWritable) writables[i];
-            values[i] = writable.get();
-        }
-        // read state
-        ByteArrayWritable stateWritable = new ByteArrayWritable();
-        stateWritable.readFields(in);
-        writables = stateWritable.get();
-        state = new byte[writables.length];
-        for (int i = 0; i < state.length; ++i) {
-            ByteWritable writable = (ByteWritable) writables[i];
-            state[i] = writable.get();
-        }
+        // read table, values and state, reusing the arrays of the same capacity
+        table = IntArrayWritable.readArray(in, table);
+        values = DoubleArrayWritable.readArray(in, values);
+        state = ByteArrayWritable.readArray(in, state);
     }
 }
@@ -0,0 +1,107 @@
+package com.galaev.genminer.mapred;
+
+import com.galaev.genminer.mapred.writables.FitnessStatistics;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Early stopping of MapReduce Genetic Miner algorithm.
+ * The run stops before the last generation, when the best fitness
+ * reaches the target, or when it has not grown by the threshold
+ * over the window of the last generations. Both are off by default.
+ * <p>
+ * Only the generations, which best fitness is exact, are taken into account.
+ * The generations before the full-at generation of the sampling are evaluated
+ * on a sample of the log, and the fitness of a net, which replay was stopped
+ * by the cutoff, is only an upper bound (below the cutoff).
+ *
+ * @see com.galaev.genminer.mapred.MinerDriver
+ * @author Anton Galaev
+ */
+public class EarlyStopping {
+
+    // job parameter: fitness, at which the run stops (not set by default)
+    public static final String TARGET_FITNESS = "targetFitness";
+    // job parameter: number of generations, the growth of the best fitness is measured over (0 - never stop)
+    public static final String STOP_WINDOW = "stopWindow";
+    // job parameter: growth of the best fitness over the window, below which the run stops
+    public static final String STOP_THRESHOLD = "stopThreshold";
+    public static final double DEFAULT_STOP_THRESHOLD = 0.001;
+
+    private double targetFitness = Double.POSITIVE_INFINITY;
+    private int window;
+    private double threshold;
+    // first generation, that is evaluated on the whole log
+    private int fullGeneration;
+    // cutoff of the bounded replay
+    private double cutoff = Double.NEGATIVE_INFINITY;
+    // best fitness of every generation so far
+    private List<Double> best = new ArrayList<>();
+    // why the run should stop, null if it should go on
+    private String reason;
+
+    /**
+     * Reads the criteria of the run, as well as its sampling and cutoff.
+     *
+     * @param conf parameters of the run
+     * @param numGenerations number of generations of the run
+     */
+    public EarlyStopping(Configuration conf, int numGenerations) {
+        String target = conf.get(TARGET_FITNESS);
+        if (target != null && !target.isEmpty()) {
+            targetFitness = Double.parseDouble(target);
+        }
+        window = conf.getInt(STOP_WINDOW, 0);
+        threshold = Double.parseDouble(conf.get(STOP_THRESHOLD, String.valueOf(DEFAULT_STOP_THRESHOLD)));
+        // see MinerMapper.getSampleFraction
+        if (Double.parseDouble(conf.get(MinerMapper.SAMPLE_FRACTION, "1")) >= 1) {
+            fullGeneration = 1;
+        } else {
+            fullGeneration = Math.min(conf.getInt(MinerMapper.SAMPLE_FULL_AT, numGenerations), numGenerations);
+        }
+        String cutoffValue = conf.get(MinerMapper.FITNESS_CUTOFF);
+        if (cutoffValue != null && !cutoffValue.isEmpty()) {
+            cutoff = Double.parseDouble(cutoffValue);
+        }
+    }
+
+    /**
+     * Adds the statistics of the next generation and tells,
+     * whether the run should stop.
+     *
+     * @param generation number of the generation
+     * @param statistics fitness statistics of the generation
+     * @return whether to stop
+     */
+    public boolean update(int generation, FitnessStatistics statistics) {
+        if (statistics.getCount() == 0) {
+            // nothing is known about the generation
+            return false;
+        }
+        if (generation < fullGeneration || statistics.getMax() < cutoff) {
+            // evaluated on a sample, or the best fitness may be a bound
+            return false;
+        }
+        best.add(statistics.getMax());
+        if (statistics.getMax() >= targetFitness) {
+            reason = "fitness " + statistics.getMax() + " reached the target " + targetFitness;
+        } else if (window > 0 && best.size() > window) {
+            double growth = statistics.getMax() - best.get(best.size() - 1 - window);
+            if (growth < threshold) {
+                reason = "fitness grew by " + growth + " in " + window + " generations";
+            }
+        }
+        return reason != null;
+    }
+
+    /**
+     * Returns why the run should stop.
+     *
+     * @return reason, or null if the run should go on
+     */
+    public String getReason() {
+        return reason;
+    }
+}
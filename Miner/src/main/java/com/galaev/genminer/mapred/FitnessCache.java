@@ -0,0 +1,189 @@
+package com.galaev.genminer.mapred;
+
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
+import cern.colt.matrix.DoubleMatrix2D;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of fitness results.
+ * Results are keyed by the structure of a net: its start and end activities
+ * and the input and output sets of all the activities. Structurally identical
+ * nets (elites, children left unchanged by crossover and mutation) get the
+ * fitness, activities firing and arc usage from the cache without any replay.
+ * All the nets must belong to the same log.
+ * The cache is thread safe.
+ *
+ * @see com.galaev.genminer.mapred.MinerMapper
+ * @author Anton Galaev
+ */
+public class FitnessCache {
+
+    private Map<Key, Result> results;
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacity maximum number of results kept in the cache
+     */
+    public FitnessCache(final int capacity) {
+        results = new LinkedHashMap<Key, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks for the result of the net with the given structure.
+     * If it is found, assigns fitness, activities firing
+     * and arc usage to the net.
+     *
+     * @param key structure of the net
+     * @param net the net to assign the result to
+     * @return whether the result was found
+     */
+    public synchronized boolean get(Key key, HeuristicsNet net) {
+        Result result = results.get(key);
+        if (result == null) {
+            return false;
+        }
+        result.assign(net);
+        return true;
+    }
+
+    /**
+     * Puts the result of the evaluated net into the cache.
+     *
+     * @param key structure of the net
+     * @param net evaluated net
+     */
+    public synchronized void put(Key key, HeuristicsNet net) {
+        results.put(key, new Result(net));
+    }
+
+    /**
+     * Returns the number of results in the cache.
+     *
+     * @return number of results
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Canonical structure of a net.
+     * Subsets and sets are ordered already, so the structure
+     * is just their contents written one after another.
+     */
+    public static class Key {
+
+        private int[] structure;
+        private int hash;
+
+        private Key(int[] structure) {
+            this.structure = structure;
+            this.hash = Arrays.hashCode(structure);
+        }
+
+        /**
+         * Builds the structure of the net.
+         *
+         * @param net heuristics net
+         * @return key of the net
+         */
+        public static Key of(HeuristicsNet net) {
+            IntArrayList structure = new IntArrayList();
+            structure.add(net.size());
+            addSubSet(structure, net.getStartActivities());
+            addSubSet(structure, net.getEndActivities());
+            for (int i = 0; i < net.size(); i++) {
+                addSet(structure, net.getInputSet(i));
+                addSet(structure, net.getOutputSet(i));
+            }
+            structure.trimToSize();
+            return new Key(structure.elements());
+        }
+
+        private static void addSet(IntArrayList structure, HNSet set) {
+            if (set == null) {
+                structure.add(-1);
+                return;
+            }
+            structure.add(set.size());
+            for (int i = 0; i < set.size(); i++) {
+                addSubSet(structure, set.get(i));
+            }
+        }
+
+        private static void addSubSet(IntArrayList structure, HNSubSet subset) {
+            if (subset == null) {
+                structure.add(-1);
+                return;
+            }
+            structure.add(subset.size());
+            for (int i = 0; i < subset.size(); i++) {
+                structure.add(subset.get(i));
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && hash == ((Key) o).hash && Arrays.equals(structure, ((Key) o).structure);
+        }
+    }
+
+    /**
+     * Fitness, activities firing and non-zero arc usage of an evaluated net.
+     */
+    private static class Result {
+
+        private double fitness;
+        private int[] actualFiring;
+        private int[] arcRows;
+        private int[] arcColumns;
+        private double[] arcValues;
+
+        Result(HeuristicsNet net) {
+            fitness = net.getFitness();
+            actualFiring = net.getActivitiesActualFiring().clone();
+            IntArrayList rows = new IntArrayList();
+            IntArrayList columns = new IntArrayList();
+            DoubleArrayList values = new DoubleArrayList();
+            net.getArcUsage().getNonZeros(rows, columns, values);
+            rows.trimToSize();
+            columns.trimToSize();
+            values.trimToSize();
+            arcRows = rows.elements();
+            arcColumns = columns.elements();
+            arcValues = values.elements();
+        }
+
+        void assign(HeuristicsNet net) {
+            net.resetActivitiesActualFiring();
+            net.resetArcUsage();
+            for (int i = 0; i < actualFiring.length; i++) {
+                if (actualFiring[i] > 0) {
+                    net.increaseElementActualFiring(i, actualFiring[i]);
+                }
+            }
+            DoubleMatrix2D arcUsage = net.getArcUsage();
+            for (int i = 0; i < arcRows.length; i++) {
+                arcUsage.setQuick(arcRows[i], arcColumns[i], arcValues[i]);
+            }
+            net.setFitness(fitness);
+        }
+    }
+}
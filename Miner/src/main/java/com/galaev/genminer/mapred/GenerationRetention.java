@@ -0,0 +1,85 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention of the generation folders of a long run.
+ * Only the given number of the last complete generations is kept,
+ * the older ones are deleted in the background, while the next
+ * generations run. At least the last complete generation is always kept,
+ * since a resumed run starts from it.
+ *
+ * @see com.galaev.genminer.mapred.RunManifest
+ * @author Anton Galaev
+ */
+public class GenerationRetention {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationRetention.class);
+
+    // job parameter: number of the last generations, that are kept, 0 (by default) means all of them
+    public static final String KEEP_GENERATIONS = "keepGenerations";
+
+    private FileSystem fs;
+    private int keep;
+    // deletes the folders one by one, null if all the generations are kept
+    private ExecutorService cleaner;
+
+    /**
+     * Creates the retention.
+     *
+     * @param fs file system of the populations
+     * @param keep number of the last generations to keep, 0 to keep all
+     */
+    public GenerationRetention(FileSystem fs, int keep) {
+        this.fs = fs;
+        this.keep = keep;
+        if (keep > 0) {
+            cleaner = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    /**
+     * Deletes the generations, that are not kept anymore,
+     * when the generation is complete and recorded in the manifest.
+     *
+     * @param generation number of the complete generation
+     */
+    public void completed(final int generation) {
+        if (cleaner == null || generation - keep < 0) {
+            return;
+        }
+        final Path path = new Path(MinerDriver.POPULATIONS_PATH + (generation - keep));
+        cleaner.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (fs.delete(path, true)) {
+                        logger.info("Deleted " + path);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Can't delete " + path + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the deletions to finish.
+     *
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        if (cleaner != null) {
+            cleaner.shutdown();
+            cleaner.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
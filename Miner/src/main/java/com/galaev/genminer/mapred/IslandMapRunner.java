@@ -0,0 +1,90 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Map runner of a generation without migration in the island model.
+ * Reads the whole island (one file), evaluates every individual
+ * the way the mapper does, sorts the island by fitness, as the reducer
+ * would get it, and builds the next generation of the island
+ * the way the reducer does. The job has no reducers, so the island
+ * is written to its own file again.
+ *
+ * @see com.galaev.genminer.mapred.IslandModel
+ * @author Anton Galaev
+ */
+public class IslandMapRunner
+        implements MapRunnable<IntWritable, HeuristicsNetImpl, IntWritable, HeuristicsNetImpl> {
+
+    private static final Logger logger = LoggerFactory.getLogger(IslandMapRunner.class);
+
+    // mapper, that evaluates the individuals
+    private MinerMapper mapper;
+    // reducer, that builds the next generation
+    private MinerReducer reducer;
+
+    /**
+     * Configures the mapper and the reducer.
+     *
+     * @param job current job
+     */
+    @Override
+    public void configure(JobConf job) {
+        mapper = new MinerMapper();
+        mapper.configure(job);
+        reducer = new MinerReducer();
+        reducer.configure(job);
+    }
+
+    /**
+     * Evolves the island of the split by one generation.
+     *
+     * @param input reader of the island
+     * @param output collector
+     * @param reporter reporter
+     * @throws IOException
+     */
+    @Override
+    public void run(RecordReader<IntWritable, HeuristicsNetImpl> input,
+                    OutputCollector<IntWritable, HeuristicsNetImpl> output,
+                    Reporter reporter) throws IOException {
+        try {
+            List<HeuristicsNetImpl> island = new ArrayList<>();
+            IntWritable key = input.createKey();
+            HeuristicsNetImpl value = input.createValue();
+            while (input.next(key, value)) {
+                mapper.record(mapper.evaluate(value, mapper.getFitness(), reporter));
+                island.add(value);
+                value = input.createValue();
+                reporter.progress();
+            }
+            // the selection expects the individuals by ascending fitness
+            Collections.sort(island);
+            logger.info("Evolving an island of " + island.size() + " individuals");
+            HeuristicsNet[] next = reducer.evolve(island.toArray(new HeuristicsNet[island.size()]));
+            for (HeuristicsNet heuristicsNet : next) {
+                HeuristicsNetImpl net = (HeuristicsNetImpl) heuristicsNet;
+                // written the way the reducer writes it
+                net.setUsageForm(MinerReducer.OUTPUT_USAGE);
+                output.collect(new IntWritable(net.getKey()), net);
+            }
+        } finally {
+            mapper.close();
+            reducer.close();
+        }
+    }
+}
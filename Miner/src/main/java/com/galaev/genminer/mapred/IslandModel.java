@@ -0,0 +1,126 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+
+import java.util.Random;
+
+/**
+ * Island model of MapReduce Genetic Miner algorithm.
+ * Every population file is an island: its individuals evolve together
+ * and stay in one file from generation to generation. Most generations
+ * are map-only jobs, in which a map task evaluates its island and builds
+ * the next generation of it, so nothing is shuffled. Every few generations
+ * the individuals go through the reducers again, split by their islands,
+ * and the best ones of every island migrate to another island
+ * (the next one in a ring or a random one).
+ *
+ * @see com.galaev.genminer.mapred.IslandMapRunner
+ * @author Anton Galaev
+ */
+public final class IslandModel {
+
+    // job parameter: whether the population evolves in islands (false by default)
+    public static final String ISLANDS = "islands";
+    // job parameter: number of generations between the migrations
+    public static final String MIGRATION_INTERVAL = "migrationInterval";
+    public static final int DEFAULT_MIGRATION_INTERVAL = 5;
+    // job parameter: number of the best individuals, that leave an island (a map task) in a migration
+    public static final String MIGRANTS = "migrants";
+    public static final int DEFAULT_MIGRANTS = 2;
+    // job parameter: topology of the migration, "ring" (by default) or "random"
+    public static final String MIGRATION_TOPOLOGY = "migrationTopology";
+    // job parameter, set by the driver: number of islands
+    public static final String NUM_ISLANDS = "numIslands";
+    // job parameter, set by the framework: file of the map task
+    private static final String MAP_INPUT_FILE = "map.input.file";
+
+    private IslandModel() {
+    }
+
+    /**
+     * Tells whether the population evolves in islands.
+     *
+     * @param conf configuration of the run or of a job
+     * @return whether the island model is on
+     */
+    public static boolean isEnabled(Configuration conf) {
+        return conf.getBoolean(ISLANDS, false);
+    }
+
+    /**
+     * Tells whether the individuals migrate in the generation.
+     *
+     * @param job job configuration
+     * @param generation number of the generation
+     * @return whether it is a migration generation
+     */
+    public static boolean isMigration(JobConf job, int generation) {
+        int interval = Math.max(job.getInt(MIGRATION_INTERVAL, DEFAULT_MIGRATION_INTERVAL), 1);
+        return generation % interval == 0;
+    }
+
+    /**
+     * Sets up the generation job for the island model.
+     * Every file is read by one map task. The islands are the splits
+     * of the reducers in a migration generation; otherwise the job
+     * is map-only, and its map tasks evolve the islands.
+     *
+     * @param job generation job
+     * @param generation number of the generation
+     * @param numIslands number of islands (population files)
+     */
+    public static void configure(JobConf job, int generation, int numIslands) {
+        job.setInt(NUM_ISLANDS, numIslands);
+        job.set("populationSplits", String.valueOf(numIslands));
+        job.setLong("mapred.min.split.size", Long.MAX_VALUE);
+        if (!isMigration(job, generation)) {
+            job.setNumReduceTasks(0);
+            job.setMapRunnerClass(IslandMapRunner.class);
+            job.setMapOutputKeyClass(IntWritable.class);
+            job.setMapOutputValueClass(HeuristicsNetImpl.class);
+        }
+    }
+
+    /**
+     * Returns the island of the map task: the number at the end
+     * of the name of its file (the initial files and the part files
+     * are numbered), modulo the number of islands.
+     *
+     * @param job job configuration
+     * @return island of the map task
+     */
+    public static int getIsland(JobConf job) {
+        String file = job.get(MAP_INPUT_FILE, "");
+        int end = file.length();
+        int start = end;
+        while (start > 0 && Character.isDigit(file.charAt(start - 1))) {
+            start--;
+        }
+        int number = start < end ? Integer.parseInt(file.substring(start, end)) : 0;
+        return number % Math.max(job.getInt(NUM_ISLANDS, 1), 1);
+    }
+
+    /**
+     * Chooses the island, the migrants of the island go to.
+     * The random topology draws it with a generator, seeded with
+     * the generation and the island, so the choice is repeatable.
+     *
+     * @param job job configuration
+     * @param island island of the migrants
+     * @return target island, other than the given one if there are several
+     */
+    public static int getTarget(JobConf job, int island) {
+        int numIslands = Math.max(job.getInt(NUM_ISLANDS, 1), 1);
+        if (numIslands == 1) {
+            return island;
+        }
+        if ("random".equalsIgnoreCase(job.get(MIGRATION_TOPOLOGY, "ring"))) {
+            Random random = new Random(31L * job.getInt(MinerMapper.GENERATION, 0) + island);
+            return (island + 1 + random.nextInt(numIslands - 1)) % numIslands;
+        }
+        return (island + 1) % numIslands;
+    }
+}
@@ -0,0 +1,278 @@
+package com.galaev.genminer.mapred;
+
+import com.galaev.genminer.mapred.log.CompiledLog;
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.writables.FitnessStatistics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.deckfour.xes.info.XLogInfo;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * In-process engine of MapReduce Genetic Miner algorithm.
+ * Runs the generations in one JVM, without Hadoop jobs: the population
+ * stays in memory, the individuals are evaluated by the mapper
+ * on a fork-join pool, split the way the mapper splits them,
+ * and every split is bred by the reducer of its partition,
+ * the reducers running in parallel. The operators, the settings
+ * and the fitness calculation are the ones of the Hadoop jobs.
+ * The island model is not used by this engine.
+ *
+ * @see com.galaev.genminer.mapred.MinerDriver
+ * @author Anton Galaev
+ */
+public class LocalEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalEngine.class);
+
+    // job parameter: engine, that runs the generations, "hadoop" (by default) or "local"
+    public static final String ENGINE = "engine";
+    // job parameter: number of threads of the local engine, 0 means all the cores
+    public static final String LOCAL_THREADS = "localThreads";
+
+    // parameters of the run
+    private Configuration conf;
+    // log info and all the variants of the log, shared by the generations
+    private XLogInfo logInfo;
+    private TraceVariants variants;
+    // number of splits of the population and of the reducers, they are bred by
+    private int populationSplits;
+    private int numReducers;
+    private int numGenerations;
+    private ForkJoinPool pool;
+    // fitness statistics of the last evaluated population
+    private FitnessStatistics statistics = new FitnessStatistics();
+
+    /**
+     * Creates the engine and its pool.
+     *
+     * @param conf parameters of the run
+     * @param logInfo log info
+     * @param numGenerations number of generations
+     * @param populationSplits number of splits of the population
+     * @param numReducers number of reducers
+     */
+    public LocalEngine(Configuration conf, XLogInfo logInfo, int numGenerations,
+                       int populationSplits, int numReducers) {
+        this.conf = conf;
+        this.logInfo = logInfo;
+        this.variants = new TraceVariants(CompiledLog.compile(logInfo));
+        this.numGenerations = numGenerations;
+        this.populationSplits = Math.max(populationSplits, 1);
+        this.numReducers = numReducers;
+        int numThreads = conf.getInt(LOCAL_THREADS, 0);
+        pool = new ForkJoinPool(numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors());
+        logger.info("Running locally in " + pool.getParallelism() + " threads");
+    }
+
+    /**
+     * Tells whether the run uses the local engine.
+     *
+     * @param conf parameters of the run
+     * @return whether the engine is local
+     */
+    public static boolean isLocal(Configuration conf) {
+        return "local".equalsIgnoreCase(conf.get(ENGINE, "hadoop"));
+    }
+
+    /**
+     * Runs one generation: evaluates the population and breeds the next one.
+     *
+     * @param population current population
+     * @param generation number of the generation
+     * @return next population
+     * @throws IOException if the breeding fails
+     */
+    public HeuristicsNetImpl[] evolve(HeuristicsNetImpl[] population, int generation) throws IOException {
+        JobConf job = createJob(generation);
+        evaluate(population, job);
+        // split the population as the mapper does
+        Random generator = new Random(1);
+        final List<List<HeuristicsNetImpl>> splits = new ArrayList<>(populationSplits);
+        for (int i = 0; i < populationSplits; i++) {
+            splits.add(new ArrayList<HeuristicsNetImpl>());
+        }
+        for (HeuristicsNetImpl individual : population) {
+            splits.get(generator.nextInt(populationSplits)).add(individual);
+        }
+        // every reducer breeds the splits of its partition in their order
+        List<Callable<List<HeuristicsNetImpl>>> reductions = new ArrayList<>(numReducers);
+        for (int i = 0; i < numReducers; i++) {
+            final MinerReducer reducer = new MinerReducer();
+            reducer.configure(job);
+            final int partition = i;
+            reductions.add(new Callable<List<HeuristicsNetImpl>>() {
+                @Override
+                public List<HeuristicsNetImpl> call() {
+                    List<HeuristicsNetImpl> next = new ArrayList<>();
+                    for (int split = partition; split < splits.size(); split += numReducers) {
+                        next.addAll(breed(reducer, splits.get(split)));
+                    }
+                    return next;
+                }
+            });
+        }
+        List<HeuristicsNetImpl> next = new ArrayList<>(population.length);
+        for (Future<List<HeuristicsNetImpl>> reduction : pool.invokeAll(reductions)) {
+            try {
+                next.addAll(reduction.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Breeding was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Breeding failed", e.getCause());
+            }
+        }
+        return unshare(next);
+    }
+
+    /**
+     * Evaluates the final population on the whole log, as the driver
+     * evaluates the result of the jobs: by fresh fitness calculators,
+     * without the cutoff, the incremental mode and the cache.
+     * The replay records are dropped first, so activities firing
+     * and arc usage of every individual cover the whole log.
+     *
+     * @param population final population
+     */
+    public void evaluateResult(HeuristicsNetImpl[] population) {
+        for (HeuristicsNetImpl individual : population) {
+            individual.setReplayRecord(null);
+        }
+        ThreadLocal<SingleNetFitness> fitness = new ThreadLocal<SingleNetFitness>() {
+            @Override
+            protected SingleNetFitness initialValue() {
+                return new SingleNetFitness(logInfo, variants);
+            }
+        };
+        pool.invoke(new Evaluation(null, fitness, population, 0, population.length));
+        updateStatistics(population);
+    }
+
+    private void evaluate(HeuristicsNetImpl[] population, JobConf job) {
+        final MinerMapper mapper = new MinerMapper();
+        mapper.configure(job, logInfo, variants);
+        ThreadLocal<SingleNetFitness> fitness = new ThreadLocal<SingleNetFitness>() {
+            @Override
+            protected SingleNetFitness initialValue() {
+                return mapper.newFitness();
+            }
+        };
+        pool.invoke(new Evaluation(mapper, fitness, population, 0, population.length));
+        updateStatistics(population);
+    }
+
+    private void updateStatistics(HeuristicsNetImpl[] population) {
+        statistics = new FitnessStatistics();
+        for (HeuristicsNetImpl individual : population) {
+            statistics.add(individual.getKey(), individual.getFitness());
+        }
+    }
+
+    /**
+     * Returns the fitness statistics of the population,
+     * evaluated last (by the last generation, or by the last call to {@code evaluateResult}).
+     *
+     * @return fitness statistics
+     */
+    public FitnessStatistics getStatistics() {
+        return statistics;
+    }
+
+    // sorts the split by fitness and breeds it, as the reducer gets and breeds it
+    private static List<HeuristicsNetImpl> breed(MinerReducer reducer, List<HeuristicsNetImpl> split) {
+        Collections.sort(split);
+        HeuristicsNet[] nets = new HeuristicsNet[split.size()];
+        for (int i = 0; i < nets.length; i++) {
+            nets[i] = split.get(i).copy();
+        }
+        List<HeuristicsNetImpl> next = new ArrayList<>(nets.length);
+        for (HeuristicsNet net : reducer.evolve(nets)) {
+            next.add((HeuristicsNetImpl) net);
+        }
+        return next;
+    }
+
+    // the next population may hold an instance twice (it is written twice by a reducer),
+    // every individual gets its own instance, as it does when it is read
+    private static HeuristicsNetImpl[] unshare(List<HeuristicsNetImpl> next) {
+        Map<HeuristicsNetImpl, Boolean> seen = new IdentityHashMap<>();
+        HeuristicsNetImpl[] population = new HeuristicsNetImpl[next.size()];
+        for (int i = 0; i < population.length; i++) {
+            HeuristicsNetImpl net = next.get(i);
+            population[i] = seen.put(net, Boolean.TRUE) == null ? net : (HeuristicsNetImpl) net.copy();
+        }
+        return population;
+    }
+
+    private JobConf createJob(int generation) {
+        JobConf job = new JobConf(conf);
+        job.set("populationSplits", String.valueOf(populationSplits));
+        job.setInt(MinerMapper.GENERATION, generation);
+        job.setInt(MinerMapper.NUM_GENERATIONS, numGenerations);
+        job.setBoolean(IslandModel.ISLANDS, false);
+        return job;
+    }
+
+    /**
+     * Stops the threads of the engine.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Evaluation of a range of the population, split in halves
+     * down to single individuals. Without a mapper, the individuals
+     * are only calculated, not taken from the cache.
+     */
+    private static class Evaluation extends RecursiveAction {
+
+        private MinerMapper mapper;
+        private ThreadLocal<SingleNetFitness> fitness;
+        private HeuristicsNetImpl[] population;
+        private int from;
+        private int to;
+
+        Evaluation(MinerMapper mapper, ThreadLocal<SingleNetFitness> fitness,
+                   HeuristicsNetImpl[] population, int from, int to) {
+            this.mapper = mapper;
+            this.fitness = fitness;
+            this.population = population;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                if (mapper != null) {
+                    mapper.evaluate(population[from], fitness.get(), Reporter.NULL);
+                } else {
+                    fitness.get().calculate(population[from]);
+                }
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Evaluation(mapper, fitness, population, from, middle),
+                        new Evaluation(mapper, fitness, population, middle, to));
+            }
+        }
+    }
+}
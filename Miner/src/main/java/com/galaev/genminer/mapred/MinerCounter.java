@@ -0,0 +1,17 @@
+package com.galaev.genminer.mapred;
+
+/**
+ * Hadoop counters of MapReduce Genetic Miner algorithm.
+ *
+ * @author Anton Galaev
+ */
+public enum MinerCounter {
+    // individuals, which fitness was taken from the cache
+    FITNESS_CACHE_HITS,
+    // individuals, which fitness had to be calculated
+    FITNESS_CACHE_MISSES,
+    // individuals, which replay was stopped by the fitness cutoff
+    FITNESS_REPLAYS_STOPPED,
+    // trace variants replayed for all the individuals
+    FITNESS_VARIANTS_REPLAYED
+}
@@ -1,15 +1,25 @@
 package com.galaev.genminer.mapred;
 
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.population.ColumnarPopulation;
+import com.galaev.genminer.mapred.writables.FitnessStatistics;
+import com.galaev.genminer.mapred.writables.MappingRegistry;
+import com.galaev.genminer.mapred.writables.SplitFitnessKey;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.SequenceFileInputFormat;
 import org.apache.hadoop.mapred.SequenceFileOutputFormat;
 import org.deckfour.xes.in.XesXmlParser;
@@ -24,12 +34,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.TreeMap;
 
 /**
  * Driver class for MapReduce Genetic Miner algorithm.
@@ -43,10 +58,19 @@ public class MinerDriver {
 
     private static final Logger logger = LoggerFactory.getLogger(MinerDriver.class);
 
+    // hdfs folder of the run: populations, activities mappings and the manifest
+    public static final String POPULATION_FOLDER = "population";
     // hdfs path to populations
-    public static final String POPULATIONS_PATH = "population" + File.separator + "gen";
-    // number of mappers/reducers
-    public static final int NUM_REDUCERS = 4;
+    public static final String POPULATIONS_PATH = POPULATION_FOLDER + File.separator + "gen";
+    // hdfs path to the activities mappings of the run
+    public static final String MAPPING_PATH = POPULATION_FOLDER + File.separator + "mapping";
+    // number of the best individuals in the result
+    public static final int RESULT_SIZE = 100;
+    // job parameter: format of the result file, "sequence" (by default) or "columnar"
+    public static final String RESULT_FORMAT = "resultFormat";
+    // groups of the byte counters of a job
+    private static final String FILE_SYSTEM_COUNTERS = "FileSystemCounters";
+    static final String TASK_COUNTERS = "org.apache.hadoop.mapred.Task$Counter";
 
 
     // local path to the log
@@ -64,9 +88,15 @@ public class MinerDriver {
     // elapsed time for each job or stage
     private long[] times;
 
-    // HDFS utilities
-    private Configuration conf;
+    // HDFS utilities, also holds the job parameters given on the command line
+    private Configuration conf = new Configuration();
     private FileSystem fs;
+    // numbers of the tasks and of the splits
+    private TaskSizing sizing;
+    // completed generations of the run
+    private RunManifest manifest;
+    // job parameters given on the command line
+    private Map<String, String> parameters = new TreeMap<>();
 
     /**
      * Main method, that starts the program.
@@ -79,6 +109,10 @@ public class MinerDriver {
      *             3 - population size
      *             4 - number of generations
      *             5 - start time in millis (optional)
+     *             6.. - job parameters as name=value (optional),
+     *                   e.g. mapperThreads=16 populationCodec=snappy numReduceTasks=8,
+     *                   engine=local to run in this JVM,
+     *                   or resume=true to continue the failed run
      */
     public static void main(String[] args) {
         logger.info("Start timer");
@@ -113,6 +147,15 @@ public class MinerDriver {
         } else {
             driver.setStartTime(System.currentTimeMillis());
         }
+        // parse job parameters
+        for (int i = 6; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator <= 0) {
+                logger.info("Job parameter should be given as name=value: " + args[i]);
+                return;
+            }
+            driver.setParameter(args[i].substring(0, separator), args[i].substring(separator + 1));
+        }
         driver.times = new long[driver.getNumGenerations() + 1];
         // run the algorithm
         try {
@@ -128,24 +171,134 @@ public class MinerDriver {
      * Runs the algorithm.
      * Prepares hdfs for running (copies the log, removes previous results).
      * Creates number of jobs equal to number of generations and runs them
-     * sequentially.
+     * sequentially, unless the fitness statistics of a generation
+     * tell to stop earlier.
      * Copies results to local file system (output path).
      *
      * @throws Exception
      */
     public void run() throws Exception {
-        // prepare the initial state for running the algorithm
+        if (LocalEngine.isLocal(conf)) {
+            runLocally();
+            return;
+        }
+        // prepare the initial state for running the algorithm, or find where to resume it
         prepareHdfs();
         // run jobs
-        for (int i = 1; i <= numGenerations; i++) {
-            times[i] = System.currentTimeMillis();
-            logger.info("--------------------GENERATION #" + i + "---------------------");
-            JobConf nextJob = createJob(i);
-            JobClient.runJob(nextJob);
-            times[i] = System.currentTimeMillis() - times[i];
+        EarlyStopping stopping = new EarlyStopping(conf, numGenerations);
+        GenerationRetention retention =
+                new GenerationRetention(fs, conf.getInt(GenerationRetention.KEEP_GENERATIONS, 0));
+        int last = manifest.getLastGeneration();
+        try {
+            for (int i = last + 1; i <= numGenerations && !manifest.isStopped(); i++) {
+                times[i] = System.currentTimeMillis();
+                logger.info("--------------------GENERATION #" + i + "---------------------");
+                // output of a generation, that failed before
+                fs.delete(new Path(POPULATIONS_PATH + i), true);
+                JobConf nextJob = createJob(i);
+                RunningJob job = JobClient.runJob(nextJob);
+                times[i] = System.currentTimeMillis() - times[i];
+                logBytes(i, job.getCounters());
+                sizing.measure(job);
+                FitnessStatistics statistics = FitnessStatistics.read(fs, conf, new Path(POPULATIONS_PATH + i));
+                logger.info("Generation #" + i + ": evaluated " + statistics);
+                last = i;
+                if (stopping.update(i, statistics)) {
+                    logger.info("Stopping after generation #" + i + ": " + stopping.getReason());
+                    manifest.setStopped(true);
+                }
+                manifest.setLastGeneration(i);
+                manifest.write(fs, new Path(RunManifest.MANIFEST_PATH));
+                retention.completed(i);
+            }
+        } finally {
+            retention.close();
         }
         // copy results to the output
-        copyResultToLocal();
+        copyResultToLocal(last);
+    }
+
+    /**
+     * Runs the algorithm in this JVM, with the local engine.
+     * The log is read from the local file, the population is kept in memory,
+     * the result is written to the local file system.
+     *
+     * @throws Exception
+     */
+    private void runLocally() throws Exception {
+        fs = FileSystem.getLocal(conf);
+        times[0] = System.currentTimeMillis();
+        logInfo = getLogInfo(new Path(input));
+        HeuristicsNet[] initial = createInitialPopulation();
+        HeuristicsNetImpl[] population = Arrays.copyOf(initial, initial.length, HeuristicsNetImpl[].class);
+        times[0] = System.currentTimeMillis() - times[0];
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        sizing = new TaskSizing(conf, populationSize, numThreads, numThreads);
+        LocalEngine engine = new LocalEngine(conf, logInfo, numGenerations,
+                sizing.getPopulationSplits(), sizing.getNumReduceTasks());
+        PriorityQueue<HeuristicsNetImpl> best = new PriorityQueue<>(RESULT_SIZE + 1);
+        EarlyStopping stopping = new EarlyStopping(conf, numGenerations);
+        try {
+            for (int i = 1; i <= numGenerations; i++) {
+                times[i] = System.currentTimeMillis();
+                logger.info("--------------------GENERATION #" + i + "---------------------");
+                population = engine.evolve(population, i);
+                times[i] = System.currentTimeMillis() - times[i];
+                logger.info("Generation #" + i + ": evaluated " + engine.getStatistics());
+                if (stopping.update(i, engine.getStatistics())) {
+                    logger.info("Stopping after generation #" + i + ": " + stopping.getReason());
+                    break;
+                }
+            }
+            // evaluate the last generation on the whole log, as the result of the jobs is evaluated
+            engine.evaluateResult(population);
+        } finally {
+            engine.close();
+        }
+        for (HeuristicsNetImpl net : population) {
+            offer(net, best);
+        }
+        writeResult(best);
+    }
+
+    /**
+     * Logs the bytes of the generation: the size of its files,
+     * the bytes read and written by the job in HDFS, and the map output
+     * before and after the compression.
+     *
+     * @param i number of the generation
+     * @param counters counters of the job
+     * @throws IOException
+     */
+    private void logBytes(int i, Counters counters) throws IOException {
+        long size = fs.getContentSummary(new Path(POPULATIONS_PATH + i)).getLength();
+        logger.info("Generation #" + i + ": " + size + " bytes in files, "
+                + getCounter(counters, FILE_SYSTEM_COUNTERS, "HDFS_BYTES_READ") + " bytes read, "
+                + getCounter(counters, FILE_SYSTEM_COUNTERS, "HDFS_BYTES_WRITTEN") + " bytes written, "
+                + getCounter(counters, TASK_COUNTERS, "MAP_OUTPUT_BYTES") + " bytes of map output, "
+                + getCounter(counters, TASK_COUNTERS, "MAP_OUTPUT_MATERIALIZED_BYTES") + " bytes materialized");
+    }
+
+    /**
+     * Lists the part files of the generation, whatever their number is.
+     *
+     * @param i number of the generation
+     * @return paths of the files, in the order of their names
+     * @throws IOException
+     */
+    private Path[] listParts(int i) throws IOException {
+        FileStatus[] statuses = fs.globStatus(new Path(POPULATIONS_PATH + i + File.separator + "part-*"));
+        if (statuses == null) {
+            return new Path[0];
+        }
+        Path[] paths = FileUtil.stat2Paths(statuses);
+        Arrays.sort(paths);
+        return paths;
+    }
+
+    private static long getCounter(Counters counters, String group, String name) {
+        Counters.Counter counter = counters.findCounter(group, name);
+        return counter == null ? 0 : counter.getValue();
     }
 
     /**
@@ -153,14 +306,37 @@ public class MinerDriver {
      * Copies the log to HDFS.
      * Removes previous results.
      * Writes initial population as generation #0 to the HDFS.
+     * If the run is resumed, and the manifest of the previous run
+     * has the same log, population size and job parameters, the generations
+     * are kept and the run continues after the last complete one.
+     * A previous run, that can't be resumed, is not deleted: the driver fails.
      *
      * @throws Exception
      */
     private void prepareHdfs() throws Exception {
-        conf = new Configuration();
         fs = FileSystem.get(conf);
+        sizing = TaskSizing.forCluster(conf, populationSize);
+        String logFingerprint = RunManifest.fingerprint(new File(input));
+        if (conf.getBoolean(RunManifest.RESUME, false)) {
+            manifest = RunManifest.read(fs, new Path(RunManifest.MANIFEST_PATH));
+            if (manifest != null && manifest.matches(populationSize, logFingerprint, parameters)) {
+                logger.info("Resuming after generation #" + manifest.getLastGeneration());
+                logInfo = getLogInfo();
+                MappingRegistry.load(fs, conf, new Path(MAPPING_PATH));
+                return;
+            }
+            // a new run would delete the population, that was meant to be resumed
+            if (fs.exists(new Path(POPULATION_FOLDER))) {
+                throw new IOException("The run in " + fs.makeQualified(new Path(POPULATION_FOLDER))
+                        + " has another log, population size or job parameters and can't be resumed;"
+                        + " delete it or run without " + RunManifest.RESUME + "=true");
+            }
+            logger.info("No run to resume, starting a new one");
+        }
         copyLogToHdfs();
         writeInitialPopulation();
+        manifest = new RunManifest(populationSize, numGenerations, logFingerprint, parameters);
+        manifest.write(fs, new Path(RunManifest.MANIFEST_PATH));
     }
 
     /**
@@ -175,37 +351,36 @@ public class MinerDriver {
         String home = fs.getHomeDirectory().toString() + File.separator;
         fs.copyFromLocalFile(false, true, new Path(input), new Path(home + "log.xes"));
         // delete old results
-        fs.delete(new Path(home + "population"), true);
+        fs.delete(new Path(home + POPULATION_FOLDER), true);
         // read the log info
         logInfo = getLogInfo();
     }
 
     /**
      * Creates initial population as generation #0.
-     * Writes it to the HDFS.
+     * Writes it and its activities mappings to the HDFS.
      *
      * @throws Exception
      */
     public void writeInitialPopulation() throws Exception {
         times[0] = System.currentTimeMillis();
         // create the initial population
-        GeneticMinerSettings settings = new GeneticMinerSettings();
-        settings.setPopulationSize(populationSize);
-        Random generator = new Random(settings.getSeed());
-        HeuristicsNet[] population = new HeuristicsNet[settings.getPopulationSize()];
-        population = InitialPopulationFactory.getPopulation(settings.getInitialPopulationType(), generator,
-                logInfo, settings.getPower()).build(population);
-        // write it to the hdfs (4 files)
-        SequenceFile.Writer writers[] = new SequenceFile.Writer[4];
+        HeuristicsNet[] population = createInitialPopulation();
+        // register the mapping of the log, so the nets are written with its id only
+        MappingRegistry.clear();
+        for (HeuristicsNet net : population) {
+            MappingRegistry.register(net.getActivitiesMappingStructures());
+        }
+        MappingRegistry.write(fs, conf, new Path(MAPPING_PATH));
+        // write it to the hdfs, a file per map task of the first generation
+        SequenceFile.Writer writers[] = new SequenceFile.Writer[sizing.getNumMapTasks()];
         try {
             for (int i = 0; i < writers.length; i++) {
                 Path path = new Path(POPULATIONS_PATH + 0 + File.separator + "init" + i);
-                writers[i] = SequenceFile.createWriter(fs, conf, path, IntWritable.class, HeuristicsNetImpl.class);
+                writers[i] = PopulationCompression.createWriter(fs, conf, path);
             }
             for (int i = 0; i < population.length; ++i) {
-                IntWritable key = new IntWritable(i);
-                ((HeuristicsNetImpl) population[i]).setKey(i);
-                writers[i % 4].append(key, population[i]);
+                writers[i % writers.length].append(new IntWritable(i), population[i]);
             }
         } finally {
             for (SequenceFile.Writer writer : writers) {
@@ -215,53 +390,127 @@ public class MinerDriver {
         times[0] = System.currentTimeMillis() - times[0];
     }
 
+    /**
+     * Creates the initial population of the settings,
+     * every individual gets its number as its key.
+     *
+     * @return initial population
+     */
+    private HeuristicsNet[] createInitialPopulation() {
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        settings.setPopulationSize(populationSize);
+        Random generator = new Random(settings.getSeed());
+        HeuristicsNet[] population = new HeuristicsNet[settings.getPopulationSize()];
+        population = InitialPopulationFactory.getPopulation(settings.getInitialPopulationType(), generator,
+                logInfo, settings.getPower()).build(population);
+        for (int i = 0; i < population.length; ++i) {
+            ((HeuristicsNetImpl) population[i]).setKey(i);
+        }
+        return population;
+    }
+
     /**
      * Copies results to local file system (output path).
+     * The individuals of the last generation are read one by one
+     * and evaluated, only the best ones are kept. The instance
+     * of a dropped individual is read into again.
      *
+     * @param generation number of the last generation
      * @throws Exception
      */
-    private void copyResultToLocal() throws Exception {
+    private void copyResultToLocal(int generation) throws Exception {
+        SingleNetFitness fitness = new SingleNetFitness(logInfo, new TraceVariants(logInfo));
+        // the best individuals, the worst of them at the head
+        PriorityQueue<HeuristicsNetImpl> best = new PriorityQueue<>(RESULT_SIZE + 1);
         // read results from the last generation folder
-        List<HeuristicsNetImpl> result = new ArrayList<>();
-        for (int i = 0; i < NUM_REDUCERS; i++) {
-            Path path = new Path(POPULATIONS_PATH + numGenerations + File.separator + "part-0000" + i);
-
-            IntWritable key = new IntWritable();
-            HeuristicsNetImpl net = new HeuristicsNetImpl();
+        IntWritable key = new IntWritable();
+        HeuristicsNetImpl net = new HeuristicsNetImpl();
+        for (Path path : listParts(generation)) {
             SequenceFile.Reader reader = null;
             try {
                 reader = new SequenceFile.Reader(fs, path, conf);
                 while (reader.next(key, net)) {
-                    result.add(net);
-                    net = new HeuristicsNetImpl();
+                    net = keepBest(net, best, fitness);
                 }
             } finally {
                 IOUtils.closeStream(reader);
             }
         }
-        // evaluate fitness for the last generation
-        for (HeuristicsNetImpl individual : result) {
-            SingleNetFitness fitness = new SingleNetFitness(logInfo);
-            fitness.calculate(individual);
-        }
-        // sort
-        Collections.sort(result);
-        // write the best 100
+        writeResult(best);
+    }
+
+    /**
+     * Writes the best individuals, the best first, with their mappings
+     * and copies them to the local file system (output path).
+     *
+     * @param best the best individuals
+     * @throws Exception
+     */
+    private void writeResult(Collection<HeuristicsNetImpl> best) throws Exception {
+        // sort, the best first
+        List<HeuristicsNetImpl> result = new ArrayList<>(best);
+        Collections.sort(result, Collections.reverseOrder());
+        // write the best ones, with their mappings
+        MappingRegistry.clear();
         Path path = new Path("result_at_" + startTime);
-        SequenceFile.Writer writer = null;
-        try {
-            writer = SequenceFile.createWriter(fs, conf, path, IntWritable.class, HeuristicsNetImpl.class);
-            for (int i = 1; i <= 100; i++) {
-                HeuristicsNetImpl net = result.get(populationSize - i);
-                writer.append(new IntWritable(i), net);
+        if ("columnar".equalsIgnoreCase(conf.get(RESULT_FORMAT))) {
+            FSDataOutputStream out = fs.create(path);
+            try {
+                ColumnarPopulation.write(out, result);
+            } finally {
+                IOUtils.closeStream(out);
+            }
+        } else {
+            SequenceFile.Writer writer = null;
+            try {
+                writer = PopulationCompression.createWriter(fs, conf, path);
+                for (int i = 1; i <= result.size(); i++) {
+                    writer.append(new IntWritable(i), result.get(i - 1));
+                }
+            } finally {
+                IOUtils.closeStream(writer);
             }
-        } finally {
-            IOUtils.closeStream(writer);
         }
-        // copy the best 100 to local file
+        // copy the best ones to local file
         fs.copyToLocalFile(path, new Path(output));
     }
 
+    /**
+     * Evaluates the individual of the last generation
+     * and keeps it, if it is one of the best.
+     *
+     * @param net individual
+     * @param best the best individuals so far, the worst of them at the head
+     * @param fitness fitness calculator
+     * @return instance, that is free to be read into
+     */
+    private HeuristicsNetImpl keepBest(HeuristicsNetImpl net, PriorityQueue<HeuristicsNetImpl> best,
+                                       SingleNetFitness fitness) {
+        // evaluate fitness for the last generation
+        fitness.calculate(net);
+        return offer(net, best);
+    }
+
+    /**
+     * Keeps the evaluated individual, if it is one of the best.
+     *
+     * @param net evaluated individual
+     * @param best the best individuals, the worst of them at the head
+     * @return instance, that is free now: a new one, the dropped one, or the given one
+     */
+    private static HeuristicsNetImpl offer(HeuristicsNetImpl net, PriorityQueue<HeuristicsNetImpl> best) {
+        // the replay records are needed between generations only
+        net.setReplayRecord(null);
+        if (best.size() < RESULT_SIZE) {
+            best.add(net);
+            return new HeuristicsNetImpl();
+        } else if (net.compareTo(best.peek()) > 0) {
+            best.add(net);
+            return best.poll();
+        }
+        return net;
+    }
+
     /**
      * Creates a hadoop job,
      * that serves as one generation.
@@ -270,27 +519,43 @@ public class MinerDriver {
      * @return created job
      */
     private JobConf createJob(int i) {
-        JobConf job = new JobConf(MinerDriver.class);
+        JobConf job = new JobConf(conf, MinerDriver.class);
         job.setJobName("Mining gen #" + i);
 
         job.set("dfs.blocksize", "1048576");
-        job.set("mapreduce.tasktracker.map.tasks.maximum", "" + NUM_REDUCERS);
-        job.set("mapreduce.tasktracker.reduce.tasks.maximum", "" + NUM_REDUCERS);
-        job.setNumMapTasks(NUM_REDUCERS);
-        job.setNumReduceTasks(NUM_REDUCERS);
+        job.setNumMapTasks(sizing.getNumMapTasks());
+        job.setNumReduceTasks(sizing.getNumReduceTasks());
         // set params for mappers
-        job.set("populationSplits", String.valueOf(populationSize / (NUM_REDUCERS * 50)));
+        job.set("populationSplits", String.valueOf(sizing.getPopulationSplits()));
         job.set("inputLog", fs.getHomeDirectory() + File.separator + "log.xes");
+        job.set(MappingRegistry.MAPPING_FILE, fs.makeQualified(new Path(MAPPING_PATH)).toString());
+        job.setInt(MinerMapper.GENERATION, i);
+        job.setInt(MinerMapper.NUM_GENERATIONS, numGenerations);
 
         job.setInputFormat(SequenceFileInputFormat.class);
         job.setOutputFormat(SequenceFileOutputFormat.class);
         FileInputFormat.addInputPath(job, new Path(POPULATIONS_PATH + (i - 1)));
         FileOutputFormat.setOutputPath(job, new Path(POPULATIONS_PATH + i));
-       // job.setPartitionerClass(MinerPartitioner.class);
+        // sort the individuals of every split by fitness on the serialized keys
+        job.setMapOutputKeyClass(SplitFitnessKey.class);
+        job.setMapOutputValueClass(HeuristicsNetImpl.class);
+        job.setPartitionerClass(MinerPartitioner.class);
+        job.setOutputKeyComparatorClass(SplitFitnessKey.Comparator.class);
+        job.setOutputValueGroupingComparator(SplitFitnessKey.GroupingComparator.class);
         job.setMapperClass(MinerMapper.class);
+        if (job.getInt(MinerMapRunner.MAPPER_THREADS, 1) != 1) {
+            // evaluate the individuals of each split on several threads
+            job.setMapRunnerClass(MinerMapRunner.class);
+        }
         job.setReducerClass(MinerReducer.class);
         job.setOutputKeyClass(IntWritable.class);
         job.setOutputValueClass(HeuristicsNetImpl.class);
+        // keep every file as an island, shuffle them in the migration generations only
+        if (IslandModel.isEnabled(job)) {
+            IslandModel.configure(job, i, sizing.getNumReduceTasks());
+        }
+        // block-compress the generation and the map output
+        PopulationCompression.configure(job);
         return job;
     }
 
@@ -303,7 +568,17 @@ public class MinerDriver {
      * @throws Exception
      */
     private XLogInfo getLogInfo() throws Exception {
-        Path path = new Path(fs.getHomeDirectory() + File.separator + "log.xes");
+        return getLogInfo(new Path(fs.getHomeDirectory() + File.separator + "log.xes"));
+    }
+
+    /**
+     * Extracts log info from the log file.
+     *
+     * @param path path to the log in the file system of the driver
+     * @return log info
+     * @throws Exception
+     */
+    private XLogInfo getLogInfo(Path path) throws Exception {
         InputStream in = null;
         try {
             XesXmlParser parser = new XesXmlParser();
@@ -357,4 +632,9 @@ public class MinerDriver {
     public void setStartTime(long startTime) {
         this.startTime = startTime;
     }
+
+    public void setParameter(String name, String value) {
+        conf.set(name, value);
+        parameters.put(name, value);
+    }
 }
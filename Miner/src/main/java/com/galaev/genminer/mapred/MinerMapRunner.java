@@ -0,0 +1,152 @@
+package com.galaev.genminer.mapred;
+
+import com.galaev.genminer.mapred.writables.SplitFitnessKey;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded map runner for MapReduce Genetic Miner algorithm.
+ * Reads the individuals in batches and evaluates every batch
+ * on a pool of threads. Each thread has its own fitness calculator,
+ * the compiled log and the fitness cache are shared.
+ * After the whole batch is evaluated, the individuals are emitted
+ * by the mapper in the order they were read, so the output
+ * (split numbers included) is the same as with a single thread.
+ * The emitted individuals are already serialized, so their instances
+ * are read into again by the next batches.
+ *
+ * @see com.galaev.genminer.mapred.MinerMapper
+ * @author Anton Galaev
+ */
+public class MinerMapRunner
+        implements MapRunnable<IntWritable, HeuristicsNetImpl, SplitFitnessKey, HeuristicsNetImpl> {
+
+    private static final Logger logger = LoggerFactory.getLogger(MinerMapRunner.class);
+
+    // job parameter: number of evaluating threads, 0 means all the cores of the node
+    public static final String MAPPER_THREADS = "mapperThreads";
+    // job parameter: number of individuals read before the evaluation, 0 means 4 per thread
+    public static final String MAPPER_BATCH_SIZE = "mapperBatchSize";
+
+    // mapper, that evaluates and emits the individuals
+    private MinerMapper mapper;
+    // number of evaluating threads
+    private int numThreads;
+    // number of individuals in a batch
+    private int batchSize;
+    // fitness calculator of every thread
+    private ThreadLocal<SingleNetFitness> fitness;
+
+    /**
+     * Configures the runner and its mapper.
+     *
+     * @param job current job
+     */
+    @Override
+    public void configure(JobConf job) {
+        mapper = new MinerMapper();
+        mapper.configure(job);
+        numThreads = job.getInt(MAPPER_THREADS, 0);
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        batchSize = job.getInt(MAPPER_BATCH_SIZE, 0);
+        if (batchSize <= 0) {
+            batchSize = numThreads * 4;
+        }
+        fitness = new ThreadLocal<SingleNetFitness>() {
+            @Override
+            protected SingleNetFitness initialValue() {
+                return mapper.newFitness();
+            }
+        };
+        logger.info("Evaluating in " + numThreads + " threads, " + batchSize + " individuals per batch");
+    }
+
+    /**
+     * Reads all the individuals of the split batch by batch,
+     * evaluates them concurrently and emits them in the input order.
+     *
+     * @param input reader of the split
+     * @param output collector
+     * @param reporter reporter
+     * @throws IOException
+     */
+    @Override
+    public void run(RecordReader<IntWritable, HeuristicsNetImpl> input,
+                    OutputCollector<SplitFitnessKey, HeuristicsNetImpl> output,
+                    Reporter reporter) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<HeuristicsNetImpl> batch = new ArrayList<>(batchSize);
+            // instances of the emitted individuals, free to be read into
+            List<HeuristicsNetImpl> spare = new ArrayList<>(batchSize);
+            IntWritable key = input.createKey();
+            HeuristicsNetImpl value = input.createValue();
+            while (input.next(key, value)) {
+                batch.add(value);
+                // every individual of the batch needs its own instance
+                value = spare.isEmpty() ? input.createValue() : spare.remove(spare.size() - 1);
+                if (batch.size() == batchSize) {
+                    evaluate(executor, batch, output, reporter);
+                    spare.addAll(batch);
+                    batch.clear();
+                }
+            }
+            evaluate(executor, batch, output, reporter);
+        } finally {
+            executor.shutdownNow();
+            mapper.close();
+        }
+    }
+
+    /**
+     * Evaluates the batch on the pool and emits it.
+     *
+     * @param executor thread pool
+     * @param batch individuals in the input order
+     * @param output collector
+     * @param reporter reporter
+     * @throws IOException
+     */
+    private void evaluate(ExecutorService executor, List<HeuristicsNetImpl> batch,
+                          OutputCollector<SplitFitnessKey, HeuristicsNetImpl> output,
+                          final Reporter reporter) throws IOException {
+        List<Future<HeuristicsNetImpl>> results = new ArrayList<>(batch.size());
+        for (final HeuristicsNetImpl individual : batch) {
+            results.add(executor.submit(new Callable<HeuristicsNetImpl>() {
+                @Override
+                public HeuristicsNetImpl call() {
+                    return mapper.evaluate(individual, fitness.get(), reporter);
+                }
+            }));
+        }
+        for (Future<HeuristicsNetImpl> result : results) {
+            try {
+                mapper.emit(result.get(), output);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Evaluation was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Evaluation failed", e.getCause());
+            }
+            reporter.progress();
+        }
+    }
+}
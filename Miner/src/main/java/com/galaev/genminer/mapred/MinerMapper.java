@@ -1,10 +1,16 @@
 package com.galaev.genminer.mapred;
 
+import com.galaev.genminer.mapred.log.CompiledLog;
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.writables.FitnessStatistics;
+import com.galaev.genminer.mapred.writables.MappingRegistry;
+import com.galaev.genminer.mapred.writables.SplitFitnessKey;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
@@ -21,6 +27,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 /**
@@ -28,22 +35,64 @@ import java.util.Random;
  * Evaluates fitness for every net, that comes inside,
  * then assigns a new key to the net. Whole population
  * is divided on several splits. So the mapper generates
- * the split number for an individual.
+ * the split number for an individual. In the island model,
+ * the split is the island of the individual, and only the migrants
+ * go to another one.
  *
  * @see com.galaev.genminer.mapred.MinerDriver
  * @see com.galaev.genminer.mapred.MinerReducer
  * @author Anton Galaev
  */
 public class MinerMapper extends MapReduceBase
-        implements Mapper<IntWritable, HeuristicsNetImpl, IntWritable, HeuristicsNetImpl> {
+        implements Mapper<IntWritable, HeuristicsNetImpl, SplitFitnessKey, HeuristicsNetImpl> {
 
     private static final Logger logger = LoggerFactory.getLogger(MinerMapper.class);
 
+    // job parameter: maximum number of results in the fitness cache, 0 disables the cache
+    public static final String FITNESS_CACHE_SIZE = "fitnessCacheSize";
+    public static final int DEFAULT_FITNESS_CACHE_SIZE = 4096;
+    // job parameter: fitness, below which the replay of an individual may stop (not set by default)
+    public static final String FITNESS_CUTOFF = "fitnessCutoff";
+    // job parameter: fraction of the log traces, sampled for the first generation (1 - no sampling)
+    public static final String SAMPLE_FRACTION = "sampleFraction";
+    // job parameter: generation, from which the whole log is used (the last one by default)
+    public static final String SAMPLE_FULL_AT = "sampleFullAt";
+    // job parameter: whether the nets keep their replay records and reuse them (false by default)
+    public static final String INCREMENTAL_FITNESS = "incrementalFitness";
+    // job parameter: form of arc usage and activities firing in the map output (SPARSE by default)
+    public static final String NET_USAGE = "netUsage";
+    // job parameters, set by the driver: current generation and number of generations
+    public static final String GENERATION = "generation";
+    public static final String NUM_GENERATIONS = "numGenerations";
+
     // number of splits for population
     private int populationSplits;
     // extracted log info
     private XLogInfo logInfo;
+    // traces of the log grouped into variants, shared by all the fitness calculators
+    private TraceVariants variants;
+    // fitness calculator, reused for all the individuals
+    private SingleNetFitness fitness;
+    // results of already evaluated structures, null if disabled
+    private FitnessCache cache;
+    // cutoff of the bounded replay
+    private double cutoff = Double.NEGATIVE_INFINITY;
+    // whether the replay records are reused
+    private boolean incremental;
+    // form of arc usage and activities firing in the output
+    private HeuristicsNetImpl.UsageForm usageForm = HeuristicsNetImpl.UsageForm.SPARSE;
     private Random generator;
+    // island of the map task and the island of its migrants, -1 if there are no islands
+    private int island = -1;
+    private int target;
+    // the best individuals of the task, that migrate at its end, null if they don't
+    private PriorityQueue<HeuristicsNetImpl> migrants;
+    private int numMigrants;
+    // collector of the migrants
+    private OutputCollector<SplitFitnessKey, HeuristicsNetImpl> migrantsOutput;
+    // fitness statistics of the emitted individuals, written at the end of the task
+    private FitnessStatistics statistics = new FitnessStatistics();
+    private JobConf job;
 
     /**
      * Evaluates fitness for every net, that comes inside,
@@ -58,34 +107,241 @@ public class MinerMapper extends MapReduceBase
      * @throws IOException
      */
     @Override
-    public void map(IntWritable key, HeuristicsNetImpl value, OutputCollector<IntWritable, HeuristicsNetImpl> output, Reporter reporter) throws IOException {
-        // create fitness object
-        SingleNetFitness fitness = new SingleNetFitness(logInfo);
+    public void map(IntWritable key, HeuristicsNetImpl value, OutputCollector<SplitFitnessKey, HeuristicsNetImpl> output, Reporter reporter) throws IOException {
         // evaluate fitness for current individual
-        HeuristicsNetImpl individual = (HeuristicsNetImpl) fitness.calculate(value);
+        HeuristicsNetImpl individual = evaluate(value, fitness, reporter);
         // generate split number for individual
+        emit(individual, output);
+    }
+
+    /**
+     * Generates the split number for the evaluated individual
+     * and collects it with the split and the fitness in the key,
+     * so the reducer gets every split sorted by the fitness.
+     * Split numbers are drawn from one generator,
+     * so the individuals must be emitted in the order of their arrival.
+     *
+     * @param individual evaluated heuristic net
+     * @param output collector
+     * @throws IOException
+     */
+    void emit(HeuristicsNetImpl individual, OutputCollector<SplitFitnessKey, HeuristicsNetImpl> output) throws IOException {
+        record(individual);
+        individual.setUsageForm(usageForm);
+        if (island >= 0) {
+            emitToIsland(individual, output);
+            return;
+        }
         int newKey = generator.nextInt(populationSplits);
-        output.collect(new IntWritable(newKey), individual);
+        output.collect(new SplitFitnessKey(newKey, individual.getFitness()), individual);
+    }
+
+    /**
+     * Collects the individual in the split of its island.
+     * In a migration generation, the best individuals are kept
+     * (as copies, the instance may be read into again) until the end
+     * of the task, the ones displaced by better ones stay at home.
+     *
+     * @param individual evaluated heuristic net
+     * @param output collector
+     * @throws IOException
+     */
+    private void emitToIsland(HeuristicsNetImpl individual,
+                              OutputCollector<SplitFitnessKey, HeuristicsNetImpl> output) throws IOException {
+        HeuristicsNetImpl resident = individual;
+        if (migrants != null && (migrants.size() < numMigrants || individual.compareTo(migrants.peek()) > 0)) {
+            migrantsOutput = output;
+            migrants.add((HeuristicsNetImpl) individual.copy());
+            resident = migrants.size() > numMigrants ? migrants.poll() : null;
+        }
+        if (resident != null) {
+            output.collect(new SplitFitnessKey(island, resident.getFitness()), resident);
+        }
+    }
+
+    /**
+     * Adds the evaluated individual to the fitness statistics of the task.
+     *
+     * @param individual evaluated heuristic net
+     */
+    void record(HeuristicsNetImpl individual) {
+        statistics.add(individual.getKey(), individual.getFitness());
+    }
+
+    /**
+     * Sends the migrants of the task to their island
+     * and writes the fitness statistics of the task to its side file,
+     * that is committed with the output of the task.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (migrants != null && migrantsOutput != null) {
+            logger.info("Migrating " + migrants.size() + " individuals from island #" + island + " to #" + target);
+            for (HeuristicsNetImpl migrant : migrants) {
+                migrant.setUsageForm(usageForm);
+                migrantsOutput.collect(new SplitFitnessKey(target, migrant.getFitness()), migrant);
+            }
+            migrants.clear();
+        }
+        Path work = job == null ? null : FileOutputFormat.getWorkOutputPath(job);
+        if (work != null && statistics.getCount() > 0) {
+            Path path = new Path(new Path(work, FitnessStatistics.STATS_FOLDER), job.get("mapred.tip.id", "map"));
+            statistics.write(work.getFileSystem(job), path);
+        }
+    }
+
+    /**
+     * Evaluates fitness of the individual.
+     * Takes the result from the cache, if the same structure
+     * has already been evaluated. May be called from several threads
+     * at once, as long as each of them has its own fitness calculator.
+     *
+     * @param individual heuristic net
+     * @param fitness fitness calculator of the calling thread
+     * @param reporter reporter for the cache counters
+     * @return evaluated individual
+     */
+    HeuristicsNetImpl evaluate(HeuristicsNetImpl individual, SingleNetFitness fitness, Reporter reporter) {
+        if (cache == null) {
+            calculate(individual, fitness, reporter);
+            return individual;
+        }
+        FitnessCache.Key structure = FitnessCache.Key.of(individual);
+        if (cache.get(structure, individual)) {
+            reporter.incrCounter(MinerCounter.FITNESS_CACHE_HITS, 1);
+        } else {
+            calculate(individual, fitness, reporter);
+            cache.put(structure, individual);
+            reporter.incrCounter(MinerCounter.FITNESS_CACHE_MISSES, 1);
+        }
+        return individual;
+    }
+
+    private void calculate(HeuristicsNetImpl individual, SingleNetFitness fitness, Reporter reporter) {
+        fitness.calculate(individual);
+        reporter.incrCounter(MinerCounter.FITNESS_VARIANTS_REPLAYED, fitness.getNumReplayedVariants());
+        if (fitness.isStopped()) {
+            reporter.incrCounter(MinerCounter.FITNESS_REPLAYS_STOPPED, 1);
+        }
     }
 
     /**
      * Configures the mapper.
-     * Extracts log info,
-     * sets the number of splits for population.
+     * Loads the shared activities mappings, sets the form of the usage in the output.
+     * Extracts log info, compiles the log,
+     * groups its traces into variants (a sample of them in early generations)
+     * and creates the fitness calculator,
+     * creates the fitness cache, reads the cutoff of the bounded replay,
+     * sets the number of splits for population
+     * and finds the island of the task, if there are islands.
      *
      * @param job current job
      */
     @Override
     public void configure(JobConf job) {
         logger.info("In mapper " + this.toString());
+        XLogInfo logInfo = null;
+        TraceVariants variants = null;
         try {
             logInfo = getLogInfo(job.get("inputLog"));
+            variants = new TraceVariants(CompiledLog.compile(logInfo));
         } catch (Exception e) {
             logger.error(e.getMessage());
             e.printStackTrace();
         }
+        configure(job, logInfo, variants);
+    }
+
+    /**
+     * Configures the mapper with the log, that is already read and compiled.
+     *
+     * @param job current job
+     * @param logInfo log info
+     * @param variants all the variants of the log
+     */
+    void configure(JobConf job, XLogInfo logInfo, TraceVariants variants) {
+        this.job = job;
+        try {
+            MappingRegistry.load(job);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load activities mappings", e);
+        }
+        usageForm = HeuristicsNetImpl.UsageForm.valueOf(job.get(NET_USAGE, "SPARSE").toUpperCase());
+        String cutoffValue = job.get(FITNESS_CUTOFF);
+        if (cutoffValue != null && !cutoffValue.isEmpty()) {
+            cutoff = Double.parseDouble(cutoffValue);
+        }
+        this.logInfo = logInfo;
+        this.variants = variants;
+        if (variants != null) {
+            double fraction = getSampleFraction(job);
+            if (fraction < 1) {
+                // the same sample in all the mappers of the generation
+                this.variants = variants.sample(fraction, job.getInt(GENERATION, 0));
+                logger.info("Evaluating on " + this.variants.getNumberOfTraces() + " sampled traces");
+            } else {
+                // the records are kept for the whole log only
+                incremental = job.getBoolean(INCREMENTAL_FITNESS, false);
+            }
+            fitness = newFitness();
+        }
+        int cacheSize = job.getInt(FITNESS_CACHE_SIZE, DEFAULT_FITNESS_CACHE_SIZE);
+        cache = cacheSize > 0 ? new FitnessCache(cacheSize) : null;
         generator = new Random(1);
         populationSplits = Integer.parseInt(job.get("populationSplits"));
+        if (IslandModel.isEnabled(job)) {
+            island = IslandModel.getIsland(job);
+            target = IslandModel.getTarget(job, island);
+            numMigrants = job.getInt(IslandModel.MIGRANTS, IslandModel.DEFAULT_MIGRANTS);
+            if (target != island && numMigrants > 0
+                    && IslandModel.isMigration(job, job.getInt(GENERATION, 0))) {
+                migrants = new PriorityQueue<>(numMigrants + 1);
+            }
+        }
+    }
+
+    /**
+     * Computes the fraction of the traces, used in the current generation.
+     * It grows linearly from the initial fraction in the first generation
+     * up to the whole log in the full-at generation. The last generation
+     * always uses the whole log.
+     *
+     * @param job current job
+     * @return fraction of the traces
+     */
+    static double getSampleFraction(JobConf job) {
+        double initial = Double.parseDouble(job.get(SAMPLE_FRACTION, "1"));
+        int generation = job.getInt(GENERATION, 1);
+        int numGenerations = job.getInt(NUM_GENERATIONS, generation);
+        int fullAt = Math.min(job.getInt(SAMPLE_FULL_AT, numGenerations), numGenerations);
+        if (initial >= 1 || generation >= fullAt) {
+            return 1;
+        }
+        return initial + (1 - initial) * (generation - 1) / (fullAt - 1);
+    }
+
+    /**
+     * Returns the fitness calculator of the mapper.
+     *
+     * @return fitness calculator
+     */
+    SingleNetFitness getFitness() {
+        return fitness;
+    }
+
+    /**
+     * Creates one more fitness calculator for the log
+     * with the cutoff and the mode of the job. It shares the compiled log and its variants with the others.
+     *
+     * @return new fitness calculator
+     */
+    SingleNetFitness newFitness() {
+        SingleNetFitness fitness = new SingleNetFitness(logInfo, variants);
+        fitness.setCutoff(cutoff);
+        fitness.setIncremental(incremental);
+        return fitness;
     }
 
     /**
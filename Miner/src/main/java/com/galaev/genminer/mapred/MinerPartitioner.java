@@ -1,25 +1,23 @@
 package com.galaev.genminer.mapred;
 
-import org.apache.hadoop.io.IntWritable;
+import com.galaev.genminer.mapred.writables.SplitFitnessKey;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Partitioner;
 import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
 
-import java.util.Random;
-
 /**
  * Custom partitioner for MapReduce Genetic Miner algorithm.
- * Reducer number is chosen randomly.
+ * Reducer number is chosen by the split number only,
+ * so all the individuals of a split go to one reducer,
+ * whatever their fitness is.
  *
  * @author Anton Galaev
  */
-public class MinerPartitioner implements Partitioner<IntWritable, HeuristicsNetImpl> {
-
-    private Random random = new Random(1);
+public class MinerPartitioner implements Partitioner<SplitFitnessKey, HeuristicsNetImpl> {
 
     @Override
-    public int getPartition(IntWritable key, HeuristicsNetImpl net, int numReducers) {
-        return random.nextInt(numReducers);
+    public int getPartition(SplitFitnessKey key, HeuristicsNetImpl net, int numReducers) {
+        return (key.getSplit() & Integer.MAX_VALUE) % numReducers;
     }
 
     @Override
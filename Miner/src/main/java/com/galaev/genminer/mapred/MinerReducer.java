@@ -1,6 +1,9 @@
 package com.galaev.genminer.mapred;
 
+import com.galaev.genminer.mapred.writables.MappingRegistry;
+import com.galaev.genminer.mapred.writables.SplitFitnessKey;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
@@ -28,16 +31,21 @@ import java.util.Random;
 /**
  * Reducer class for MapReduce Genetic Miner algorithm.
  * Creates a new generation from the bunch of individuals, that
- * come inside.
+ * come inside. The individuals of a split come sorted by their fitness
+ * in the shuffle, so the selection gets them already ordered.
  *
  * @see com.galaev.genminer.mapred.MinerDriver
  * @author Anton Galaev
  */
 public class MinerReducer extends MapReduceBase
-        implements Reducer<IntWritable, HeuristicsNetImpl, IntWritable, HeuristicsNetImpl> {
+        implements Reducer<SplitFitnessKey, HeuristicsNetImpl, IntWritable, HeuristicsNetImpl> {
 
     private static final Logger logger = LoggerFactory.getLogger(MinerReducer.class);
 
+    // form of arc usage and activities firing in the output: none, the next mapper
+    // evaluates the nets again, and so does the driver for the last generation
+    static final HeuristicsNetImpl.UsageForm OUTPUT_USAGE = HeuristicsNetImpl.UsageForm.NONE;
+
     // settings and other necessary tools for creating the population
     GeneticMinerSettings settings = new GeneticMinerSettings();
     Random generator = new Random(settings.getSeed());
@@ -49,19 +57,35 @@ public class MinerReducer extends MapReduceBase
     BuildPopulation buildNextPopulation = NextPopulationFactory.getPopulation(selectionMethod, generator, settings
             .getCrossoverRate(), settings.getMutationRate(), settings.getElitismRate(), crossover, mutation);
 
+    /**
+     * Configures the reducer.
+     * Loads the shared activities mappings, so that the nets
+     * can be read with the ids of their mappings.
+     *
+     * @param job current job
+     */
+    @Override
+    public void configure(JobConf job) {
+        try {
+            MappingRegistry.load(job);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load activities mappings", e);
+        }
+    }
+
     /**
      * Reduce method.
      * Reads input values into array. Performs genetic operations
      * over that array(selection, crossover and mutation). Thus, creates a new generation.
      *
-     * @param key number of the split
-     * @param values all nets in the split
+     * @param key number of the split (and fitness of the current net)
+     * @param values all nets in the split, by ascending fitness
      * @param output collector
      * @param reporter reporter
      * @throws IOException
      */
     @Override
-    public void reduce(IntWritable key, Iterator<HeuristicsNetImpl> values, OutputCollector<IntWritable, HeuristicsNetImpl> output, Reporter reporter) throws IOException {
+    public void reduce(SplitFitnessKey key, Iterator<HeuristicsNetImpl> values, OutputCollector<IntWritable, HeuristicsNetImpl> output, Reporter reporter) throws IOException {
         // collect the input values into array
         List<HeuristicsNet> netsList = new ArrayList<>();
         while (values.hasNext()) {
@@ -69,12 +93,24 @@ public class MinerReducer extends MapReduceBase
         }
         HeuristicsNet[] nets = netsList.toArray(new HeuristicsNet[netsList.size()]);
         // build next population
-        HeuristicsNet[] next = buildNextPopulation.build(nets);
+        HeuristicsNet[] next = evolve(nets);
 
         // write it to the output with original keys
         for (HeuristicsNet heuristicsNet : next) {
             HeuristicsNetImpl net = (HeuristicsNetImpl) heuristicsNet;
+            net.setUsageForm(OUTPUT_USAGE);
             output.collect(new IntWritable(net.getKey()), net);
         }
     }
+
+    /**
+     * Builds the next population from the individuals
+     * by selection, crossover and mutation.
+     *
+     * @param nets individuals by ascending fitness
+     * @return next population
+     */
+    HeuristicsNet[] evolve(HeuristicsNet[] nets) {
+        return buildNextPopulation.build(nets);
+    }
 }
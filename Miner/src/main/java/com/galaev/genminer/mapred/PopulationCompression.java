@@ -0,0 +1,154 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.io.compress.zlib.ZlibFactory;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Compression of the populations for MapReduce Genetic Miner algorithm.
+ * The nets of a population share most of their structure, so the
+ * population files are block-compressed, as well as the map output.
+ * The codec is chosen by name: none, deflate, gzip, snappy, lz4
+ * or the full class name of a codec. The choice is checked in the JVM,
+ * that configures the job (the driver): a codec, that is not available
+ * there (no class or no native library), is replaced by deflate.
+ * The task nodes are expected to have the same libraries as the driver.
+ *
+ * @see com.galaev.genminer.mapred.MinerDriver
+ * @author Anton Galaev
+ */
+public final class PopulationCompression {
+
+    private static final Logger logger = LoggerFactory.getLogger(PopulationCompression.class);
+
+    // job parameter: codec of the population files (deflate by default)
+    public static final String POPULATION_CODEC = "populationCodec";
+    // job parameter: codec of the map output (the population codec by default)
+    public static final String MAP_OUTPUT_CODEC = "mapOutputCodec";
+    public static final String DEFAULT_CODEC = "deflate";
+
+    private PopulationCompression() {
+    }
+
+    /**
+     * Returns the codec of the population files.
+     *
+     * @param conf configuration of the run
+     * @return codec, or null if the populations are not compressed
+     */
+    public static CompressionCodec getPopulationCodec(Configuration conf) {
+        return getCodec(conf, conf.get(POPULATION_CODEC, DEFAULT_CODEC));
+    }
+
+    /**
+     * Returns the codec of the map output.
+     *
+     * @param conf configuration of the run
+     * @return codec, or null if the map output is not compressed
+     */
+    public static CompressionCodec getMapOutputCodec(Configuration conf) {
+        return getCodec(conf, conf.get(MAP_OUTPUT_CODEC, conf.get(POPULATION_CODEC, DEFAULT_CODEC)));
+    }
+
+    /**
+     * Sets the compression of the map output and of the generation files.
+     *
+     * @param job generation job
+     */
+    public static void configure(JobConf job) {
+        CompressionCodec populationCodec = getPopulationCodec(job);
+        if (populationCodec != null) {
+            FileOutputFormat.setCompressOutput(job, true);
+            FileOutputFormat.setOutputCompressorClass(job, populationCodec.getClass());
+            SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+        } else {
+            FileOutputFormat.setCompressOutput(job, false);
+        }
+        CompressionCodec mapOutputCodec = getMapOutputCodec(job);
+        job.setCompressMapOutput(mapOutputCodec != null);
+        if (mapOutputCodec != null) {
+            job.setMapOutputCompressorClass(mapOutputCodec.getClass());
+        }
+    }
+
+    /**
+     * Creates a writer of a population file, block-compressed
+     * with the population codec.
+     *
+     * @param fs file system
+     * @param conf configuration of the run
+     * @param path path to the file
+     * @return writer
+     * @throws IOException
+     */
+    public static SequenceFile.Writer createWriter(FileSystem fs, Configuration conf, Path path)
+            throws IOException {
+        CompressionCodec codec = getPopulationCodec(conf);
+        if (codec == null) {
+            return SequenceFile.createWriter(fs, conf, path, IntWritable.class, HeuristicsNetImpl.class);
+        }
+        return SequenceFile.createWriter(fs, conf, path, IntWritable.class, HeuristicsNetImpl.class,
+                SequenceFile.CompressionType.BLOCK, codec);
+    }
+
+    /**
+     * Finds the codec by its name.
+     *
+     * @param conf configuration
+     * @param name short name or class name of the codec
+     * @return available codec, or null for "none"
+     */
+    static CompressionCodec getCodec(Configuration conf, String name) {
+        String className;
+        switch (name.toLowerCase()) {
+            case "none":
+                return null;
+            case "deflate":
+            case "default":
+                className = DefaultCodec.class.getName();
+                break;
+            case "gzip":
+                className = GzipCodec.class.getName();
+                break;
+            case "snappy":
+                className = "org.apache.hadoop.io.compress.SnappyCodec";
+                break;
+            case "lz4":
+                className = "org.apache.hadoop.io.compress.Lz4Codec";
+                break;
+            default:
+                className = name;
+        }
+        try {
+            CompressionCodec codec = (CompressionCodec) ReflectionUtils.newInstance(conf.getClassByName(className), conf);
+            // sequence files are written with gzip only by the native zlib
+            if (codec instanceof GzipCodec && !ZlibFactory.isNativeZlibLoaded(conf)) {
+                throw new IllegalStateException("no native zlib");
+            }
+            // fails without the native library
+            Compressor compressor = CodecPool.getCompressor(codec);
+            CodecPool.returnCompressor(compressor);
+            return codec;
+        } catch (ClassNotFoundException | RuntimeException | LinkageError e) {
+            logger.info("Codec " + name + " is not available, using deflate: " + e);
+            return ReflectionUtils.newInstance(DefaultCodec.class, conf);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Manifest of a run of MapReduce Genetic Miner algorithm.
+ * Records the parameters of the run, the fingerprint of its log
+ * and the last complete generation, so a run, that failed,
+ * can be resumed from that generation. The manifest is rewritten
+ * after every generation: it is written aside and then renamed.
+ * A run is resumed only with the same log, population size
+ * and job parameters.
+ *
+ * @see com.galaev.genminer.mapred.MinerDriver
+ * @author Anton Galaev
+ */
+public class RunManifest {
+
+    // hdfs path to the manifest of the run
+    public static final String MANIFEST_PATH = "population" + File.separator + "manifest";
+    // job parameter: whether a run with the same log and population size is resumed (false by default)
+    public static final String RESUME = "resume";
+
+    private static final String POPULATION_SIZE = "populationSize";
+    private static final String NUM_GENERATIONS = "numGenerations";
+    private static final String LOG_FINGERPRINT = "logFingerprint";
+    private static final String LAST_GENERATION = "lastGeneration";
+    private static final String STOPPED = "stopped";
+    private static final String PARAMETER = "parameter.";
+
+    private Properties properties = new Properties();
+
+    private RunManifest() {
+    }
+
+    /**
+     * Creates the manifest of a new run, without complete generations.
+     *
+     * @param populationSize size of the population
+     * @param numGenerations number of generations
+     * @param logFingerprint fingerprint of the log
+     * @param parameters job parameters of the run
+     */
+    public RunManifest(int populationSize, int numGenerations, String logFingerprint,
+                       Map<String, String> parameters) {
+        properties.setProperty(POPULATION_SIZE, String.valueOf(populationSize));
+        properties.setProperty(NUM_GENERATIONS, String.valueOf(numGenerations));
+        properties.setProperty(LOG_FINGERPRINT, logFingerprint);
+        properties.setProperty(LAST_GENERATION, "0");
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            properties.setProperty(PARAMETER + parameter.getKey(), parameter.getValue());
+        }
+    }
+
+    /**
+     * Tells whether the manifest belongs to a run with the same population
+     * size, the same log and the same job parameters (except {@link #RESUME}),
+     * so that the run can be resumed.
+     *
+     * @param populationSize size of the population
+     * @param logFingerprint fingerprint of the log
+     * @param parameters job parameters of the run
+     * @return whether the run can be resumed
+     */
+    public boolean matches(int populationSize, String logFingerprint, Map<String, String> parameters) {
+        if (!String.valueOf(populationSize).equals(properties.getProperty(POPULATION_SIZE))
+                || !logFingerprint.equals(properties.getProperty(LOG_FINGERPRINT))) {
+            return false;
+        }
+        Map<String, String> stored = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(PARAMETER)) {
+                stored.put(name.substring(PARAMETER.length()), properties.getProperty(name));
+            }
+        }
+        Map<String, String> current = new TreeMap<>(parameters);
+        stored.remove(RESUME);
+        current.remove(RESUME);
+        return stored.equals(current);
+    }
+
+    public int getLastGeneration() {
+        return Integer.parseInt(properties.getProperty(LAST_GENERATION, "0"));
+    }
+
+    public void setLastGeneration(int generation) {
+        properties.setProperty(LAST_GENERATION, String.valueOf(generation));
+    }
+
+    /**
+     * Tells whether the run was stopped early, so no more generations are run.
+     *
+     * @return whether the run was stopped
+     */
+    public boolean isStopped() {
+        return Boolean.parseBoolean(properties.getProperty(STOPPED, "false"));
+    }
+
+    public void setStopped(boolean stopped) {
+        properties.setProperty(STOPPED, String.valueOf(stopped));
+    }
+
+    /**
+     * Writes the manifest aside and renames it, so the manifest
+     * on the path is always complete.
+     *
+     * @param fs file system
+     * @param path path to the manifest
+     * @throws IOException
+     */
+    public void write(FileSystem fs, Path path) throws IOException {
+        Path temporary = path.suffix(".tmp");
+        FSDataOutputStream out = fs.create(temporary, true);
+        try {
+            properties.store(out, "MapReduce Genetic Miner run");
+        } finally {
+            IOUtils.closeStream(out);
+        }
+        fs.delete(path, false);
+        if (!fs.rename(temporary, path)) {
+            throw new IOException("Can't write the manifest to " + path);
+        }
+    }
+
+    /**
+     * Reads the manifest of the previous run.
+     * If the run failed between the removal of the old manifest and
+     * the rename of the new one, the new one is read from aside:
+     * it is complete, as the old one is removed only after it is written.
+     *
+     * @param fs file system
+     * @param path path to the manifest
+     * @return manifest, or null if there is none
+     * @throws IOException
+     */
+    public static RunManifest read(FileSystem fs, Path path) throws IOException {
+        if (!fs.exists(path)) {
+            path = path.suffix(".tmp");
+            if (!fs.exists(path)) {
+                return null;
+            }
+        }
+        RunManifest manifest = new RunManifest();
+        FSDataInputStream in = fs.open(path);
+        try {
+            manifest.properties.load(in);
+        } finally {
+            IOUtils.closeStream(in);
+        }
+        return manifest;
+    }
+
+    /**
+     * Computes the fingerprint of the log: the SHA-1 digest of the file.
+     *
+     * @param log local log file
+     * @return digest in hex
+     * @throws IOException
+     */
+    public static String fingerprint(File log) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No SHA-1 digest", e);
+        }
+        try (InputStream in = new FileInputStream(log)) {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+}
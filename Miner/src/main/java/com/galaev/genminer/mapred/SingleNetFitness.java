@@ -1,11 +1,19 @@
 package com.galaev.genminer.mapred;
 
+import com.galaev.genminer.mapred.log.CompiledLog;
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.log.VariantTrie;
+import com.galaev.genminer.mapred.replay.ReplayEngine;
+import com.galaev.genminer.mapred.replay.ReplayRecord;
 import org.deckfour.xes.info.XLogInfo;
 import org.deckfour.xes.model.XTrace;
 import org.processmining.models.heuristics.HeuristicsNet;
 import org.processmining.models.heuristics.impl.ContinuousSemanticsParser;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
 
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -17,14 +25,32 @@ import java.util.Random;
  * different weights used for every part of the sum above. Furthermore, the
  * parsing semantics is a continuous one (i.e., the log replay does not stop
  * when problems are encountered).
+ * <p>
+ * Optionally the replay is bounded by a cutoff: the variants are replayed
+ * one by one, the heaviest first, while an upper bound of the fitness is kept.
+ * As soon as the bound falls below the cutoff, the replay stops and the bound
+ * is assigned as the fitness, so an individual, that can't reach the cutoff,
+ * is not replayed to the end. Activities firing and arc usage of such
+ * an individual cover only the replayed traces.
+ * <p>
+ * Individuals with duplicate tasks can't be replayed by the engine:
+ * they are parsed trace by trace by {@code ContinuousSemanticsParser},
+ * without the cutoff and the incremental mode.
+ * <p>
+ * One object can be reused for any number of individuals of the same log.
+ * It is not thread safe.
  *
+ * @see com.galaev.genminer.mapred.replay.ReplayEngine
  * @author Ana Karla Alves de Medeiros
  * @author Anton Galaev
  *
  */
 public class SingleNetFitness {
     private XLogInfo logInfo = null;
+    private TraceVariants variants = null;
+    private VariantTrie trie = null;
     private HeuristicsNet individual = null;
+    private ReplayEngine engine = null;
     private ContinuousSemanticsParser parser = null;
 
     private double numPIsWithMissingTokens; //PI = process instance
@@ -32,6 +58,23 @@ public class SingleNetFitness {
     private double numPIsWithExtraTokensLeftBehind;
     private double numExtraTokensLeftBehind;
     private double numParsedWMEs;
+    // events of the log, that were not replayed, all counted as parsed
+    private double numUnreplayedEvents;
+
+    // fitness, below which the replay may stop, disabled by default
+    private double cutoff = Double.NEGATIVE_INFINITY;
+    // whether the replay of the last individual was stopped
+    private boolean stopped;
+    // whether the results of the previous replay are reused
+    private boolean incremental;
+    // record of the current replay, null if it is not made
+    private ReplayRecord record;
+    // number of variants replayed for the last individual
+    private int numReplayedVariants;
+
+    // trie nodes, where the replay was checkpointed, and their checkpoints
+    private int[] branchNodes = new int[16];
+    private int[] branchCheckpoints = new int[16];
 
     private Random generator = null;
 
@@ -44,8 +87,27 @@ public class SingleNetFitness {
      *            information about the log
      */
     public SingleNetFitness(XLogInfo logInfo) {
-        generator = new Random(Long.MAX_VALUE);
+        this(logInfo, new TraceVariants(logInfo));
+    }
+
+    /**
+     * Constructs a new improved continuous semantics fitness for the given log,
+     * which traces are already grouped into variants. The variants are only read,
+     * so they can be shared by all the fitness objects of the same log.
+     * They may also be a sample of the log: then the fitness is normalized
+     * by the number of traces and events in the sample.
+     *
+     * @param logInfo
+     *            information about the log
+     * @param variants
+     *            traces of the same log grouped into variants
+     */
+    public SingleNetFitness(XLogInfo logInfo, TraceVariants variants) {
         this.logInfo = logInfo;
+        this.variants = variants;
+        this.trie = variants.getTrie();
+        this.engine = new ReplayEngine(variants.getLog());
+        this.generator = new Random(Long.MAX_VALUE);
     }
 
     /**
@@ -59,14 +121,50 @@ public class SingleNetFitness {
     public HeuristicsNet calculate(HeuristicsNet individual) {
 
         this.individual = individual;
-        createParser();
+        resetCounters();
         resetDuplicatesActualFiringAndArcUsage();
-        calculatePartialFitness();
+        if (!ReplayEngine.canReplay(individual)) {
+            calculateParsedFitness();
+            return assignFitness();
+        }
+        engine.load(individual);
+        if (cutoff > Double.NEGATIVE_INFINITY) {
+            dropReplayRecord();
+            calculateBoundedFitness();
+        } else if (incremental && individual instanceof HeuristicsNetImpl) {
+            calculateIncrementalFitness((HeuristicsNetImpl) individual);
+        } else {
+            dropReplayRecord();
+            calculatePartialFitness();
+        }
+        engine.writeUsage(individual);
 
         return assignFitness();
 
     }
 
+    private void resetCounters() {
+        numPIsWithMissingTokens = 0;
+        numMissingTokens = 0;
+        numPIsWithExtraTokensLeftBehind = 0;
+        numExtraTokensLeftBehind = 0;
+        numParsedWMEs = 0;
+        numUnreplayedEvents = 0;
+        stopped = false;
+        record = null;
+        numReplayedVariants = 0;
+    }
+
+    /**
+     * Removes the record of an earlier replay from the individual,
+     * so that it is written with the net only in the incremental mode.
+     */
+    private void dropReplayRecord() {
+        if (individual instanceof HeuristicsNetImpl) {
+            ((HeuristicsNetImpl) individual).setReplayRecord(null);
+        }
+    }
+
     private void resetDuplicatesActualFiringAndArcUsage() {
             individual.resetActivitiesActualFiring();
             individual.resetArcUsage();
@@ -77,33 +175,222 @@ public class SingleNetFitness {
         parser = new ContinuousSemanticsParser(individual, generator);
     }
 
+    /**
+     * Parses every trace of the variants by the ProM parser.
+     * The parser chooses between duplicate tasks at random,
+     * so the representative trace is parsed once per every trace of the variant.
+     */
+    private void calculateParsedFitness() {
+
+        createParser();
+        dropReplayRecord();
+        numReplayedVariants = variants.size();
+        for (int variant = 0; variant < variants.size(); variant++) {
+            XTrace pi = variants.getTrace(variant);
+            for (int i = 0; i < variants.getCount(variant); i++) {
+                parser.parse(pi);
+                addTrace(1, parser.getNumMissingTokens(), parser.getNumExtraTokensLeftBehind(),
+                        parser.getNumParsedElements());
+            }
+        }
+    }
+
+    /**
+     * Replays the prefix trie of the variants depth-first.
+     * Every node is fired once, weighted by the number of traces passing
+     * through it, so a prefix shared by several variants is replayed only once.
+     * The replay is checkpointed after every node with several children
+     * and rolled back to it before each next child.
+     */
     private void calculatePartialFitness() {
 
-        XTrace pi;
-        int numSimilarPIs;
-        int numMissingTokens;
-        int numExtraTokensLeftBehind;
-
-        Iterator<XTrace> logReaderInstanceIterator = logInfo.getLog().iterator();
-        while (logReaderInstanceIterator.hasNext()) {
-            pi = logReaderInstanceIterator.next();
-
-            numSimilarPIs = 1;
-            parser.parse(pi);
-            //partial assignment to variables
-            numMissingTokens = parser.getNumMissingTokens();
-            if (numMissingTokens > 0) {
-                numPIsWithMissingTokens += numSimilarPIs;
-                this.numMissingTokens += (numMissingTokens * numSimilarPIs);
+        numReplayedVariants = variants.size();
+
+        int numBranches = 0;
+        engine.startTrace();
+        branchNodes[numBranches] = VariantTrie.ROOT;
+        branchCheckpoints[numBranches] = engine.checkpoint();
+        numBranches++;
+        addTraceEnd(VariantTrie.ROOT);
+
+        int current = VariantTrie.ROOT;
+        for (int node = VariantTrie.ROOT + 1; node < trie.size(); node++) {
+            int parent = trie.getParent(node);
+            if (parent != current) {
+                // go back to the branching point
+                while (branchNodes[numBranches - 1] != parent) {
+                    numBranches--;
+                }
+                engine.rollback(branchCheckpoints[numBranches - 1]);
+            }
+            engine.fire(trie.getEvent(node), trie.getCount(node));
+            addTraceEnd(node);
+            if (trie.getChildren(node) > 1) {
+                if (numBranches == branchNodes.length) {
+                    branchNodes = Arrays.copyOf(branchNodes, numBranches * 2);
+                    branchCheckpoints = Arrays.copyOf(branchCheckpoints, numBranches * 2);
+                }
+                branchNodes[numBranches] = node;
+                branchCheckpoints[numBranches] = engine.checkpoint();
+                numBranches++;
             }
+            current = node;
+        }
+    }
+
+    /**
+     * Replays the variants one by one, the heaviest first.
+     * After every variant the fitness is bounded from above: all the events,
+     * that are not replayed yet, are taken as parsed, and the tokens, that are
+     * already missing or left behind, are divided by the largest possible
+     * denominators. The replay stops, when the bound falls below the cutoff.
+     */
+    private void calculateBoundedFitness() {
+
+        CompiledLog log = variants.getLog();
+        int[] order = variants.getHeaviestFirst();
+        double numPIsAtLog = variants.getNumberOfTraces();
+        double numATEsAtLog = variants.getNumberOfEvents();
+        numUnreplayedEvents = numATEsAtLog;
 
-            numExtraTokensLeftBehind = parser.getNumExtraTokensLeftBehind();
-            if (numExtraTokensLeftBehind > 0) {
-                numPIsWithExtraTokensLeftBehind += numSimilarPIs;
-                this.numExtraTokensLeftBehind += (numExtraTokensLeftBehind * numSimilarPIs);
+        for (int i = 0; i < order.length; i++) {
+            int variant = order[i];
+            int trace = variants.getTraceIndex(variant);
+            int numSimilarPIs = variants.getCount(variant);
+            engine.replay(trace, numSimilarPIs);
+            numReplayedVariants++;
+            addTrace(numSimilarPIs, engine.getNumMissingTokens(),
+                    engine.getNumExtraTokensLeftBehind(), engine.getNumParsedElements());
+            numUnreplayedEvents -= (double) log.getLength(trace) * numSimilarPIs;
+
+            double bound = (numParsedWMEs + numUnreplayedEvents
+                    - ((numMissingTokens / (numPIsAtLog - numPIsWithMissingTokens + 1))
+                    + (numExtraTokensLeftBehind / (numPIsAtLog - numPIsWithExtraTokensLeftBehind + 1))))
+                    / numATEsAtLog;
+            if (bound < cutoff && i < order.length - 1) {
+                stopped = true;
+                return;
             }
-            numParsedWMEs += (parser.getNumParsedElements() * numSimilarPIs);
         }
+        numUnreplayedEvents = 0;
+    }
+
+    /**
+     * Adds the results of the traces, that end in the node.
+     * The engine is at the state after firing the node.
+     *
+     * @param node trie node
+     */
+    private void addTraceEnd(int node) {
+
+        int numSimilarPIs = trie.getEndCount(node);
+
+        if (numSimilarPIs == 0) {
+            return;
+        }
+        engine.finishTrace();
+        if (record != null) {
+            record.setContribution(trie.getEndVariant(node), engine.getNumMissingTokens(),
+                    engine.getNumExtraTokensLeftBehind(), engine.getNumParsedElements());
+        }
+        addTrace(numSimilarPIs, engine.getNumMissingTokens(),
+                engine.getNumExtraTokensLeftBehind(), engine.getNumParsedElements());
+    }
+
+    /**
+     * Replays only the variants, affected by the changes of the net
+     * since its record was made, and reuses the rest of the record.
+     * Firing of an activity depends on its own input and output sets
+     * and on the output sets of its predecessors, that mark its places.
+     * So a variant is affected, if it fires a changed activity or an activity,
+     * which output set contains a changed one. Without a matching record
+     * the whole trie is replayed and the record is made.
+     *
+     * @param net evaluated net
+     */
+    private void calculateIncrementalFitness(HeuristicsNetImpl net) {
+
+        ReplayRecord previous = net.getReplayRecord();
+        record = new ReplayRecord(net, variants.size(), variants.getNumberOfEvents());
+        if (previous == null || !previous.matches(net, variants.size(), variants.getNumberOfEvents())) {
+            calculatePartialFitness();
+            net.setReplayRecord(record);
+            return;
+        }
+
+        // changed activities and the activities, that mark their places
+        boolean[] affected = previous.changedActivities(ReplayRecord.fingerprints(net));
+        boolean[] changed = affected.clone();
+        for (int activity = 0; activity < net.size(); activity++) {
+            if (!affected[activity] && outputsAny(net, activity, changed)) {
+                affected[activity] = true;
+            }
+        }
+        // variants, that fire the affected activities
+        boolean[] replayed = new boolean[variants.size()];
+        for (int eventClass = 0; eventClass < variants.getLog().getNumberOfClasses(); eventClass++) {
+            int activity = engine.getActivity(eventClass);
+            if (activity >= 0 && affected[activity]) {
+                for (int variant : variants.getVariantsWithClass(eventClass)) {
+                    replayed[variant] = true;
+                }
+            }
+        }
+
+        for (int variant = 0; variant < variants.size(); variant++) {
+            int numSimilarPIs = variants.getCount(variant);
+            if (replayed[variant]) {
+                engine.replay(variants.getTraceIndex(variant), numSimilarPIs);
+                record.setContribution(variant, engine.getNumMissingTokens(),
+                        engine.getNumExtraTokensLeftBehind(), engine.getNumParsedElements());
+                numReplayedVariants++;
+            } else {
+                record.setContribution(variant, previous.getMissingTokens(variant),
+                        previous.getExtraTokensLeftBehind(variant), previous.getParsedElements(variant));
+            }
+            addTrace(numSimilarPIs, record.getMissingTokens(variant),
+                    record.getExtraTokensLeftBehind(variant), record.getParsedElements(variant));
+        }
+        net.setReplayRecord(record);
+    }
+
+    private boolean outputsAny(HeuristicsNet net, int activity, boolean[] activities) {
+        HNSet outputSet = net.getOutputSet(activity);
+        int subsets = outputSet == null ? 0 : outputSet.size();
+        for (int i = 0; i < subsets; i++) {
+            HNSubSet subset = outputSet.get(i);
+            for (int j = 0; j < subset.size(); j++) {
+                int successor = subset.get(j);
+                if (successor >= 0 && successor < activities.length && activities[successor]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the results of a trace.
+     *
+     * @param numSimilarPIs number of traces, represented by the trace
+     * @param numMissingTokens missing tokens of the trace
+     * @param numExtraTokensLeftBehind tokens left behind by the trace
+     * @param numParsedElements parsed events of the trace
+     */
+    private void addTrace(int numSimilarPIs, int numMissingTokens, int numExtraTokensLeftBehind,
+                          int numParsedElements) {
+
+        //partial assignment to variables
+        if (numMissingTokens > 0) {
+            numPIsWithMissingTokens += numSimilarPIs;
+            this.numMissingTokens += (numMissingTokens * numSimilarPIs);
+        }
+
+        if (numExtraTokensLeftBehind > 0) {
+            numPIsWithExtraTokensLeftBehind += numSimilarPIs;
+            this.numExtraTokensLeftBehind += (numExtraTokensLeftBehind * numSimilarPIs);
+        }
+        numParsedWMEs += (numParsedElements * numSimilarPIs);
     }
 
     private HeuristicsNet assignFitness() {
@@ -114,18 +401,66 @@ public class SingleNetFitness {
         double missingTokensDenominator = 0.001;
         double unusedTokensDenominator = 0.001;
 
-        numATEsAtLog = logInfo.getNumberOfEvents();
-        numPIsAtLog = logInfo.getNumberOfTraces();
+        // the whole log, or the sample of it
+        numATEsAtLog = variants.getNumberOfEvents();
+        numPIsAtLog = variants.getNumberOfTraces();
 
         missingTokensDenominator = numPIsAtLog - numPIsWithMissingTokens + 1;
 
         unusedTokensDenominator = numPIsAtLog - numPIsWithExtraTokensLeftBehind + 1;
 
-        fitness = (numParsedWMEs - ((numMissingTokens / missingTokensDenominator) + (numExtraTokensLeftBehind / unusedTokensDenominator)))
+        fitness = (numParsedWMEs + numUnreplayedEvents - ((numMissingTokens / missingTokensDenominator) + (numExtraTokensLeftBehind / unusedTokensDenominator)))
                 / numATEsAtLog;
 
         individual.setFitness(fitness);
 
         return individual;
     }
+
+    /**
+     * Sets the cutoff of the bounded replay.
+     * {@code Double.NEGATIVE_INFINITY} disables the bound,
+     * so the whole log is always replayed.
+     *
+     * @param cutoff fitness, below which the replay may stop
+     */
+    public void setCutoff(double cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    public double getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Tells whether the replay of the last individual was stopped by the cutoff,
+     * so its fitness is only an upper bound.
+     *
+     * @return whether the replay was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Turns the incremental mode on or off.
+     *
+     * @param incremental whether the results of the previous replay are reused
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Returns the number of variants, that were replayed for the last individual.
+     *
+     * @return number of replayed variants
+     */
+    public int getNumReplayedVariants() {
+        return numReplayedVariants;
+    }
 }
@@ -0,0 +1,165 @@
+package com.galaev.genminer.mapred;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.ClusterStatus;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.TaskCompletionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Sizing of the generation jobs of MapReduce Genetic Miner algorithm.
+ * The number of reducers and of the population splits follows
+ * from the population size and the reduce slots of the cluster,
+ * the number of map tasks follows from the map slots and the time
+ * the previous generation took to evaluate one individual: the work
+ * of a generation is spread over as many map tasks as it takes
+ * to make every one of them last about the target time.
+ * Every number can be fixed with a job parameter.
+ *
+ * @see com.galaev.genminer.mapred.MinerDriver
+ * @author Anton Galaev
+ */
+public class TaskSizing {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskSizing.class);
+
+    // job parameters: number of map and reduce tasks, 0 (by default) means automatic
+    public static final String NUM_MAP_TASKS = "numMapTasks";
+    public static final String NUM_REDUCE_TASKS = "numReduceTasks";
+    // job parameter: number of individuals in a split of the population
+    public static final String SPLIT_SIZE = "splitSize";
+    public static final int DEFAULT_SPLIT_SIZE = 200;
+    // job parameter: time, a map task should take, in seconds
+    public static final String TARGET_MAP_SECONDS = "targetMapSeconds";
+    public static final int DEFAULT_TARGET_MAP_SECONDS = 60;
+
+    // parameters of the run
+    private Configuration conf;
+    private int populationSize;
+    // map and reduce slots of the cluster
+    private int mapSlots;
+    private int reduceSlots;
+    // time of the evaluation of one individual in milliseconds, measured in the previous generation
+    private double evaluationMillis = -1;
+
+    /**
+     * Creates the sizing for the given capacity.
+     *
+     * @param conf parameters of the run
+     * @param populationSize size of the population
+     * @param mapSlots number of map slots
+     * @param reduceSlots number of reduce slots
+     */
+    public TaskSizing(Configuration conf, int populationSize, int mapSlots, int reduceSlots) {
+        this.conf = conf;
+        this.populationSize = populationSize;
+        this.mapSlots = Math.max(mapSlots, 1);
+        this.reduceSlots = Math.max(reduceSlots, 1);
+    }
+
+    /**
+     * Creates the sizing for the capacity of the cluster.
+     *
+     * @param conf parameters of the run
+     * @param populationSize size of the population
+     * @return sizing
+     * @throws IOException if the cluster can't be asked
+     */
+    public static TaskSizing forCluster(Configuration conf, int populationSize) throws IOException {
+        ClusterStatus status = new JobClient(new JobConf(conf)).getClusterStatus();
+        logger.info("Cluster of " + status.getTaskTrackers() + " nodes, " + status.getMaxMapTasks()
+                + " map slots, " + status.getMaxReduceTasks() + " reduce slots");
+        return new TaskSizing(conf, populationSize, status.getMaxMapTasks(), status.getMaxReduceTasks());
+    }
+
+    /**
+     * Returns the number of reduce tasks: one per split at most,
+     * and not more than the reduce slots. In the island model,
+     * it is also the number of islands.
+     *
+     * @return number of reduce tasks
+     */
+    public int getNumReduceTasks() {
+        int fixed = conf.getInt(NUM_REDUCE_TASKS, 0);
+        if (fixed > 0) {
+            return fixed;
+        }
+        return clamp(populationSize / getSplitSize(), 1, reduceSlots);
+    }
+
+    /**
+     * Returns the number of splits of the population,
+     * the same number for every reducer.
+     *
+     * @return number of splits
+     */
+    public int getPopulationSplits() {
+        int numReduceTasks = getNumReduceTasks();
+        return Math.max(populationSize / getSplitSize() / numReduceTasks, 1) * numReduceTasks;
+    }
+
+    /**
+     * Returns the number of map tasks. All the map slots are used
+     * until the evaluation is measured, then just enough to make
+     * every task last the target time. In the island model,
+     * every island is read by its own map task.
+     *
+     * @return number of map tasks
+     */
+    public int getNumMapTasks() {
+        if (IslandModel.isEnabled(conf)) {
+            return getNumReduceTasks();
+        }
+        int fixed = conf.getInt(NUM_MAP_TASKS, 0);
+        if (fixed > 0) {
+            return fixed;
+        }
+        if (evaluationMillis < 0) {
+            return mapSlots;
+        }
+        double targetMillis = 1000.0 * conf.getInt(TARGET_MAP_SECONDS, DEFAULT_TARGET_MAP_SECONDS);
+        return clamp((int) Math.ceil(populationSize * evaluationMillis / targetMillis), 1, mapSlots);
+    }
+
+    /**
+     * Measures the time of the evaluation of one individual in the job:
+     * the run time of its successful map tasks divided by their input records.
+     *
+     * @param job completed job
+     * @throws IOException
+     */
+    public void measure(RunningJob job) throws IOException {
+        long millis = 0;
+        int from = 0;
+        TaskCompletionEvent[] events = job.getTaskCompletionEvents(from);
+        while (events.length > 0) {
+            for (TaskCompletionEvent event : events) {
+                if (event.isMapTask() && event.getTaskStatus() == TaskCompletionEvent.Status.SUCCEEDED) {
+                    millis += event.getTaskRunTime();
+                }
+            }
+            from += events.length;
+            events = job.getTaskCompletionEvents(from);
+        }
+        Counters.Counter records = job.getCounters().findCounter(MinerDriver.TASK_COUNTERS, "MAP_INPUT_RECORDS");
+        if (records != null && records.getValue() > 0 && millis > 0) {
+            evaluationMillis = (double) millis / records.getValue();
+            logger.info("Evaluation of an individual took " + evaluationMillis + " ms, next generation in "
+                    + getNumMapTasks() + " map tasks");
+        }
+    }
+
+    private int getSplitSize() {
+        return Math.max(conf.getInt(SPLIT_SIZE, DEFAULT_SPLIT_SIZE), 1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
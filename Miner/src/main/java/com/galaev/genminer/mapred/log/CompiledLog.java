@@ -0,0 +1,167 @@
+package com.galaev.genminer.mapred.log;
+
+import org.deckfour.xes.classification.XEventClass;
+import org.deckfour.xes.classification.XEventClasses;
+import org.deckfour.xes.info.XLogInfo;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+/**
+ * Integer-encoded in-memory event log.
+ * Every event is stored as the index of its {@code XEventClass},
+ * events of all the traces are packed into a single array,
+ * and trace boundaries are kept in a separate array of offsets.
+ * The log is compiled once, so that the replay does not have to
+ * classify the events (build strings, look into attribute maps) again.
+ *
+ * @author Anton Galaev
+ */
+public class CompiledLog {
+
+    /**
+     * Code of an event, that doesn't belong to any known event class.
+     */
+    public static final int UNKNOWN_CLASS = -1;
+
+    // original log
+    private XLog log;
+    // event classes of the log, by their indexes
+    private XEventClass[] eventClasses;
+    // class indexes of all the events, trace after trace
+    private int[] events;
+    // start of every trace in the events array, the last one is the end of the log
+    private int[] offsets;
+
+    private CompiledLog(XLog log, XEventClass[] eventClasses, int[] events, int[] offsets) {
+        this.log = log;
+        this.eventClasses = eventClasses;
+        this.events = events;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Compiles the log, described by the log info.
+     * Events are classified by the event classes of the log info.
+     *
+     * @param logInfo information about the log
+     * @return compiled log
+     */
+    public static CompiledLog compile(XLogInfo logInfo) {
+        XLog log = logInfo.getLog();
+        XEventClasses classes = logInfo.getEventClasses();
+        // index the event classes
+        XEventClass[] eventClasses = new XEventClass[classes.size()];
+        for (XEventClass eventClass : classes.getClasses()) {
+            eventClasses[eventClass.getIndex()] = eventClass;
+        }
+        // count the events
+        int numEvents = 0;
+        for (XTrace trace : log) {
+            numEvents += trace.size();
+        }
+        // encode the events
+        int[] events = new int[numEvents];
+        int[] offsets = new int[log.size() + 1];
+        int position = 0;
+        int traceIndex = 0;
+        for (XTrace trace : log) {
+            offsets[traceIndex++] = position;
+            for (XEvent event : trace) {
+                XEventClass eventClass = classes.getClassOf(event);
+                events[position++] = eventClass == null ? UNKNOWN_CLASS : eventClass.getIndex();
+            }
+        }
+        offsets[traceIndex] = position;
+        return new CompiledLog(log, eventClasses, events, offsets);
+    }
+
+    /**
+     * Returns the number of traces in the log.
+     *
+     * @return number of traces
+     */
+    public int getNumberOfTraces() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Returns the number of events in the log.
+     *
+     * @return number of events
+     */
+    public int getNumberOfEvents() {
+        return events.length;
+    }
+
+    /**
+     * Returns the packed class indexes of all the events.
+     * The array is shared, it must not be modified.
+     *
+     * @return events of the log
+     */
+    public int[] getEvents() {
+        return events;
+    }
+
+    /**
+     * Returns the position of the first event of the trace
+     * in the events array.
+     *
+     * @param trace trace number
+     * @return start of the trace
+     */
+    public int getStart(int trace) {
+        return offsets[trace];
+    }
+
+    /**
+     * Returns the position after the last event of the trace
+     * in the events array.
+     *
+     * @param trace trace number
+     * @return end of the trace
+     */
+    public int getEnd(int trace) {
+        return offsets[trace + 1];
+    }
+
+    /**
+     * Returns the number of events in the trace.
+     *
+     * @param trace trace number
+     * @return length of the trace
+     */
+    public int getLength(int trace) {
+        return offsets[trace + 1] - offsets[trace];
+    }
+
+    /**
+     * Returns the original trace.
+     *
+     * @param trace trace number
+     * @return trace of the log
+     */
+    public XTrace getTrace(int trace) {
+        return log.get(trace);
+    }
+
+    /**
+     * Returns the number of event classes.
+     *
+     * @return number of event classes
+     */
+    public int getNumberOfClasses() {
+        return eventClasses.length;
+    }
+
+    /**
+     * Returns the event class by its index.
+     *
+     * @param index index of the event class
+     * @return event class
+     */
+    public XEventClass getEventClass(int index) {
+        return eventClasses[index];
+    }
+}
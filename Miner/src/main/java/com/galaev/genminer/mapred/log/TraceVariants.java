@@ -0,0 +1,330 @@
+package com.galaev.genminer.mapred.log;
+
+import cern.colt.list.IntArrayList;
+import org.deckfour.xes.info.XLogInfo;
+import org.deckfour.xes.model.XTrace;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Variant-compressed view of an event log.
+ * Traces with the same sequence of event classes form one variant,
+ * so every variant can be replayed only once and weighted by
+ * the number of traces sharing it.
+ *
+ * @see com.galaev.genminer.mapred.SingleNetFitness
+ * @author Anton Galaev
+ */
+public class TraceVariants {
+
+    // compiled log, the variants are taken from
+    private CompiledLog log;
+    // number of distinct variants
+    private int size;
+    // first trace of every variant in the log
+    private int[] traces;
+    // number of traces in every variant
+    private int[] counts;
+    // number of traces and events in all the variants
+    private int numTraces;
+    private long numEvents;
+    // prefix trie of the variants, built on demand
+    private VariantTrie trie;
+    // variants ordered by the number of their events in the log, built on demand
+    private int[] heaviestFirst;
+    // variants, that contain every event class, built on demand
+    private int[][] classVariants;
+
+    /**
+     * Compiles the log and groups its traces into variants.
+     *
+     * @param logInfo information about the log
+     */
+    public TraceVariants(XLogInfo logInfo) {
+        this(CompiledLog.compile(logInfo));
+    }
+
+    /**
+     * Groups the traces of the compiled log into variants.
+     * Variants keep the order of their first appearance in the log.
+     *
+     * @param log compiled log
+     */
+    public TraceVariants(CompiledLog log) {
+        this.log = log;
+        traces = new int[log.getNumberOfTraces()];
+        counts = new int[log.getNumberOfTraces()];
+        Map<Sequence, Integer> variants = new HashMap<>();
+        for (int trace = 0; trace < log.getNumberOfTraces(); trace++) {
+            Sequence sequence = new Sequence(log, trace);
+            Integer variant = variants.get(sequence);
+            if (variant == null) {
+                variants.put(sequence, size);
+                traces[size] = trace;
+                counts[size] = 1;
+                size++;
+            } else {
+                counts[variant]++;
+            }
+        }
+        traces = Arrays.copyOf(traces, size);
+        counts = Arrays.copyOf(counts, size);
+        countTotals();
+    }
+
+    private TraceVariants(CompiledLog log, int[] traces, int[] counts) {
+        this.log = log;
+        this.traces = traces;
+        this.counts = counts;
+        this.size = traces.length;
+        countTotals();
+    }
+
+    private void countTotals() {
+        for (int variant = 0; variant < size; variant++) {
+            numTraces += counts[variant];
+            numEvents += (long) log.getLength(traces[variant]) * counts[variant];
+        }
+    }
+
+    /**
+     * Draws a sample of the traces, stratified by the variants.
+     * Every variant keeps the given fraction of its traces; the fractional
+     * part is rounded up with the probability equal to it, so rare variants
+     * still get into the sample now and then. Variants without traces
+     * are dropped, but the sample always keeps at least one trace.
+     * The same seed gives the same sample.
+     *
+     * @param fraction fraction of the traces to keep
+     * @param seed seed of the rounding
+     * @return sampled variants, or these variants if the fraction is not below 1
+     */
+    public TraceVariants sample(double fraction, long seed) {
+        if (fraction >= 1 || size == 0) {
+            return this;
+        }
+        Random random = new Random(seed);
+        int[] sampledTraces = new int[size];
+        int[] sampledCounts = new int[size];
+        int sampledSize = 0;
+        for (int variant = 0; variant < size; variant++) {
+            double expected = counts[variant] * fraction;
+            int count = (int) expected;
+            if (random.nextDouble() < expected - count) {
+                count++;
+            }
+            if (count > 0) {
+                sampledTraces[sampledSize] = traces[variant];
+                sampledCounts[sampledSize] = count;
+                sampledSize++;
+            }
+        }
+        if (sampledSize == 0) {
+            sampledTraces[0] = traces[getHeaviestFirst()[0]];
+            sampledCounts[0] = 1;
+            sampledSize = 1;
+        }
+        return new TraceVariants(log, Arrays.copyOf(sampledTraces, sampledSize),
+                Arrays.copyOf(sampledCounts, sampledSize));
+    }
+
+    /**
+     * Returns the number of distinct variants.
+     *
+     * @return number of variants
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the compiled log, the variants are taken from.
+     *
+     * @return compiled log
+     */
+    public CompiledLog getLog() {
+        return log;
+    }
+
+    /**
+     * Returns the number of traces in all the variants.
+     *
+     * @return number of traces
+     */
+    public int getNumberOfTraces() {
+        return numTraces;
+    }
+
+    /**
+     * Returns the number of events in all the traces of all the variants.
+     *
+     * @return number of events
+     */
+    public long getNumberOfEvents() {
+        return numEvents;
+    }
+
+    /**
+     * Returns the number of the first trace of the variant in the compiled log.
+     * Its events represent the whole variant.
+     *
+     * @param variant variant number
+     * @return trace number in the log
+     */
+    public int getTraceIndex(int variant) {
+        return traces[variant];
+    }
+
+    /**
+     * Returns the trace, that represents the variant.
+     *
+     * @param variant variant number
+     * @return representative trace
+     */
+    public XTrace getTrace(int variant) {
+        return log.getTrace(traces[variant]);
+    }
+
+    /**
+     * Returns the number of traces in the variant.
+     *
+     * @param variant variant number
+     * @return multiplicity of the variant
+     */
+    public int getCount(int variant) {
+        return counts[variant];
+    }
+
+    /**
+     * Returns the prefix trie of the variants.
+     * The trie is built on the first call and then shared.
+     *
+     * @return prefix trie
+     */
+    public synchronized VariantTrie getTrie() {
+        if (trie == null) {
+            trie = new VariantTrie(this);
+        }
+        return trie;
+    }
+
+    /**
+     * Returns the variants ordered by their weight, the heaviest first.
+     * The weight of a variant is the number of its events in the whole log
+     * (the length of the trace times the number of traces).
+     * The order is computed on the first call and then shared,
+     * the array must not be modified.
+     *
+     * @return variant numbers
+     */
+    public synchronized int[] getHeaviestFirst() {
+        if (heaviestFirst == null) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long weightA = (long) log.getLength(traces[a]) * counts[a];
+                    long weightB = (long) log.getLength(traces[b]) * counts[b];
+                    return weightA > weightB ? -1 : (weightA < weightB ? 1 : a.compareTo(b));
+                }
+            });
+            heaviestFirst = new int[size];
+            for (int i = 0; i < size; i++) {
+                heaviestFirst[i] = order[i];
+            }
+        }
+        return heaviestFirst;
+    }
+
+    /**
+     * Returns the variants, that contain at least one event of the class.
+     * The index is built on the first call and then shared,
+     * the arrays must not be modified.
+     *
+     * @param eventClass index of the event class
+     * @return variant numbers in ascending order
+     */
+    public int[] getVariantsWithClass(int eventClass) {
+        return getClassVariants()[eventClass];
+    }
+
+    private synchronized int[][] getClassVariants() {
+        if (classVariants == null) {
+            IntArrayList[] lists = new IntArrayList[log.getNumberOfClasses()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = new IntArrayList();
+            }
+            int[] events = log.getEvents();
+            for (int variant = 0; variant < size; variant++) {
+                int trace = traces[variant];
+                for (int i = log.getStart(trace); i < log.getEnd(trace); i++) {
+                    int eventClass = events[i];
+                    if (eventClass >= 0) {
+                        IntArrayList list = lists[eventClass];
+                        // variants are visited in order, so a repeated class is the last element
+                        if (list.isEmpty() || list.get(list.size() - 1) != variant) {
+                            list.add(variant);
+                        }
+                    }
+                }
+            }
+            classVariants = new int[lists.length][];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i].trimToSize();
+                classVariants[i] = lists[i].elements();
+            }
+        }
+        return classVariants;
+    }
+
+    /**
+     * Sequence of event classes of a trace in the compiled log.
+     * Used as a key for grouping the traces.
+     */
+    private static class Sequence {
+
+        private int[] events;
+        private int start;
+        private int end;
+        private int hash;
+
+        Sequence(CompiledLog log, int trace) {
+            events = log.getEvents();
+            start = log.getStart(trace);
+            end = log.getEnd(trace);
+            hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + events[i];
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sequence)) {
+                return false;
+            }
+            Sequence other = (Sequence) o;
+            if (hash != other.hash || end - start != other.end - other.start) {
+                return false;
+            }
+            for (int i = start, j = other.start; i < end; i++, j++) {
+                if (events[i] != other.events[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.galaev.genminer.mapred.log;
+
+import cern.colt.list.IntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix trie of the trace variants.
+ * Every node is an event; traces, that share a prefix, share
+ * the path of the prefix from the root. Nodes are stored in
+ * depth-first (pre-)order in flat arrays, so the trie can be
+ * walked without recursion: the parent of every node
+ * is either the previous node or one of its ancestors.
+ *
+ * @see com.galaev.genminer.mapred.SingleNetFitness
+ * @author Anton Galaev
+ */
+public class VariantTrie {
+
+    /**
+     * Index of the root node, which stands for the empty prefix.
+     */
+    public static final int ROOT = 0;
+
+    // number of nodes, the root included
+    private int size;
+    // event class of every node
+    private int[] events;
+    // parent of every node
+    private int[] parents;
+    // number of children of every node
+    private int[] children;
+    // number of traces, that pass through every node
+    private int[] counts;
+    // number of traces, that end in every node
+    private int[] endCounts;
+    // variant, that ends in every node, -1 if none
+    private int[] endVariants;
+
+    /**
+     * Builds the trie of the variants.
+     *
+     * @param variants traces grouped into variants
+     */
+    public VariantTrie(TraceVariants variants) {
+        CompiledLog log = variants.getLog();
+        int[] logEvents = log.getEvents();
+        // build the trie in the order of insertion
+        List<int[]> childLists = new ArrayList<>();
+        Map<Long, Integer> childIndex = new HashMap<>();
+        IntArrayList insertedEvents = new IntArrayList();
+        IntArrayList insertedCounts = new IntArrayList();
+        IntArrayList insertedEndCounts = new IntArrayList();
+        IntArrayList insertedEndVariants = new IntArrayList();
+        childLists.add(null);
+        insertedEvents.add(CompiledLog.UNKNOWN_CLASS);
+        insertedCounts.add(0);
+        insertedEndCounts.add(0);
+        insertedEndVariants.add(-1);
+        for (int variant = 0; variant < variants.size(); variant++) {
+            int count = variants.getCount(variant);
+            int trace = variants.getTraceIndex(variant);
+            int node = ROOT;
+            insertedCounts.set(node, insertedCounts.get(node) + count);
+            for (int i = log.getStart(trace); i < log.getEnd(trace); i++) {
+                Long edge = ((long) node << 32) | (logEvents[i] & 0xffffffffL);
+                Integer child = childIndex.get(edge);
+                if (child == null) {
+                    child = insertedEvents.size();
+                    childIndex.put(edge, child);
+                    childLists.add(null);
+                    insertedEvents.add(logEvents[i]);
+                    insertedCounts.add(0);
+                    insertedEndCounts.add(0);
+                    insertedEndVariants.add(-1);
+                    int[] siblings = childLists.get(node);
+                    siblings = siblings == null ? new int[1] : Arrays.copyOf(siblings, siblings.length + 1);
+                    siblings[siblings.length - 1] = child;
+                    childLists.set(node, siblings);
+                }
+                node = child;
+                insertedCounts.set(node, insertedCounts.get(node) + count);
+            }
+            insertedEndCounts.set(node, insertedEndCounts.get(node) + count);
+            insertedEndVariants.set(node, variant);
+        }
+        // lay the nodes out in pre-order
+        size = insertedEvents.size();
+        events = new int[size];
+        parents = new int[size];
+        children = new int[size];
+        counts = new int[size];
+        endCounts = new int[size];
+        endVariants = new int[size];
+        int[] stack = new int[size];
+        int[] stackParents = new int[size];
+        int top = 0;
+        stack[top++] = ROOT;
+        int position = 0;
+        while (top > 0) {
+            top--;
+            int node = stack[top];
+            events[position] = insertedEvents.get(node);
+            parents[position] = node == ROOT ? -1 : stackParents[top];
+            counts[position] = insertedCounts.get(node);
+            endCounts[position] = insertedEndCounts.get(node);
+            endVariants[position] = insertedEndVariants.get(node);
+            int[] nodeChildren = childLists.get(node);
+            if (nodeChildren != null) {
+                children[position] = nodeChildren.length;
+                // push in reverse, so the first child is visited first
+                for (int i = nodeChildren.length - 1; i >= 0; i--) {
+                    stack[top] = nodeChildren[i];
+                    stackParents[top] = position;
+                    top++;
+                }
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Returns the number of nodes, the root included.
+     *
+     * @return number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the event class of the node.
+     *
+     * @param node node index
+     * @return event class index
+     */
+    public int getEvent(int node) {
+        return events[node];
+    }
+
+    /**
+     * Returns the parent of the node, -1 for the root.
+     *
+     * @param node node index
+     * @return parent index
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * Returns the number of children of the node.
+     *
+     * @param node node index
+     * @return number of children
+     */
+    public int getChildren(int node) {
+        return children[node];
+    }
+
+    /**
+     * Returns the number of traces, that pass through the node.
+     *
+     * @param node node index
+     * @return number of traces
+     */
+    public int getCount(int node) {
+        return counts[node];
+    }
+
+    /**
+     * Returns the number of traces, that end in the node.
+     *
+     * @param node node index
+     * @return number of traces
+     */
+    public int getEndCount(int node) {
+        return endCounts[node];
+    }
+
+    /**
+     * Returns the variant, that ends in the node.
+     * Variants are distinct sequences, so there is at most one.
+     *
+     * @param node node index
+     * @return variant number, -1 if no variant ends in the node
+     */
+    public int getEndVariant(int node) {
+        return endVariants[node];
+    }
+}
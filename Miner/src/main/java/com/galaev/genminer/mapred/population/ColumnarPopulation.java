@@ -0,0 +1,424 @@
+package com.galaev.genminer.mapred.population;
+
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
+import cern.colt.matrix.DoubleMatrix2D;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.processmining.models.heuristics.impl.ActivitiesMappingStructures;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Population, stored column by column.
+ * The keys, the fitness values and the mapping ids of all the individuals
+ * are primitive columns, the structures of the nets (start/end sets,
+ * input/output sets, activities firing and arc usage) are packed into
+ * one int column and one double column with an offset table for each.
+ * The activities mappings follow, written once.
+ * <p>
+ * The file is read as it is, from a (memory-mapped) buffer:
+ * the fitness of the individuals is available without decoding them,
+ * a net is decoded only when it is asked for.
+ * The driver writes the result of a run in this form on request
+ * ({@code resultFormat=columnar}), the generations are always sequence files.
+ * The GUI tells the two forms of the result apart by the first bytes.
+ * <p>
+ * Layout (big-endian): magic, version, number of individuals,
+ * number of mappings, length of the int column, length of the double column;
+ * fitness column, key column, mapping id column, int offsets, double offsets,
+ * int column, double column; every mapping as its length and its bytes.
+ * One file must not exceed 2 GB, the size of one mapped region.
+ *
+ * @author Anton Galaev
+ */
+public class ColumnarPopulation {
+
+    // "HNCP", the first bytes of a columnar population file
+    public static final int MAGIC = 0x484E4350;
+    public static final int VERSION = 1;
+    // length of the header in bytes
+    private static final int HEADER_LENGTH = 24;
+    // set, that is not there
+    private static final int NULL_SET = -1;
+
+    // the whole file
+    private ByteBuffer buffer;
+    // number of individuals
+    private int size;
+    // positions of the columns
+    private int fitnessPosition;
+    private int keyPosition;
+    private int mappingIdPosition;
+    private int intOffsetPosition;
+    private int doubleOffsetPosition;
+    private int intPosition;
+    private int doublePosition;
+    // positions of the mappings, and the mappings decoded so far
+    private int[] mappingPositions;
+    private ActivitiesMappingStructures[] mappings;
+
+    /**
+     * Opens the population, stored in the buffer.
+     *
+     * @param buffer contents of a columnar population file
+     * @throws IOException if the buffer is not a columnar population
+     */
+    public ColumnarPopulation(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a columnar population");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown version of columnar population: " + buffer.getInt(4));
+        }
+        size = buffer.getInt(8);
+        int numMappings = buffer.getInt(12);
+        int numInts = buffer.getInt(16);
+        int numDoubles = buffer.getInt(20);
+        fitnessPosition = HEADER_LENGTH;
+        keyPosition = fitnessPosition + 8 * size;
+        mappingIdPosition = keyPosition + 4 * size;
+        intOffsetPosition = mappingIdPosition + 4 * size;
+        doubleOffsetPosition = intOffsetPosition + 4 * (size + 1);
+        intPosition = doubleOffsetPosition + 4 * (size + 1);
+        doublePosition = intPosition + 4 * numInts;
+        mappingPositions = new int[numMappings];
+        mappings = new ActivitiesMappingStructures[numMappings];
+        int position = doublePosition + 8 * numDoubles;
+        for (int i = 0; i < numMappings; i++) {
+            mappingPositions[i] = position;
+            position += 4 + buffer.getInt(position);
+        }
+    }
+
+    /**
+     * Maps the local file into memory.
+     *
+     * @param file columnar population file
+     * @return population
+     * @throws IOException
+     */
+    public static ColumnarPopulation map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new ColumnarPopulation(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Opens the file: maps it, if it is local, reads it whole otherwise.
+     *
+     * @param fs file system
+     * @param path path to the file
+     * @return population
+     * @throws IOException
+     */
+    public static ColumnarPopulation open(FileSystem fs, Path path) throws IOException {
+        if (fs instanceof LocalFileSystem) {
+            return map(((LocalFileSystem) fs).pathToFile(path));
+        }
+        byte[] bytes = new byte[(int) fs.getFileStatus(path).getLen()];
+        FSDataInputStream in = fs.open(path);
+        try {
+            in.readFully(bytes);
+        } finally {
+            IOUtils.closeStream(in);
+        }
+        return new ColumnarPopulation(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Tells whether the file is a columnar population, by its first bytes.
+     *
+     * @param fs file system
+     * @param path path to the file
+     * @return whether the file starts with the magic number
+     * @throws IOException
+     */
+    public static boolean isColumnar(FileSystem fs, Path path) throws IOException {
+        if (!fs.isFile(path) || fs.getFileStatus(path).getLen() < HEADER_LENGTH) {
+            return false;
+        }
+        FSDataInputStream in = fs.open(path);
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            IOUtils.closeStream(in);
+        }
+    }
+
+    /**
+     * Returns the number of individuals.
+     *
+     * @return size of the population
+     */
+    public int size() {
+        return size;
+    }
+
+    public double getFitness(int individual) {
+        return buffer.getDouble(fitnessPosition + 8 * individual);
+    }
+
+    public int getKey(int individual) {
+        return buffer.getInt(keyPosition + 4 * individual);
+    }
+
+    /**
+     * Returns the individuals with the highest fitness,
+     * without decoding any of them.
+     *
+     * @param n number of individuals
+     * @return numbers of the individuals, the best first
+     */
+    public int[] getBest(int n) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = Double.compare(getFitness(b), getFitness(a));
+                return result != 0 ? result : a.compareTo(b);
+            }
+        });
+        int[] best = new int[Math.min(n, size)];
+        for (int i = 0; i < best.length; i++) {
+            best[i] = order[i];
+        }
+        return best;
+    }
+
+    /**
+     * Computes the minimum, the mean and the maximum fitness
+     * of the population, without decoding the individuals.
+     *
+     * @return minimum, mean and maximum
+     */
+    public double[] getFitnessStatistics() {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            double fitness = getFitness(i);
+            min = Math.min(min, fitness);
+            max = Math.max(max, fitness);
+            sum += fitness;
+        }
+        return new double[] {min, size == 0 ? 0 : sum / size, max};
+    }
+
+    /**
+     * Decodes the individual.
+     *
+     * @param individual number of the individual
+     * @return new net
+     * @throws IOException if its mapping can't be read
+     */
+    public HeuristicsNetImpl getNet(int individual) throws IOException {
+        HeuristicsNetImpl net = new HeuristicsNetImpl(getMapping(buffer.getInt(mappingIdPosition + 4 * individual)));
+        net.setKey(getKey(individual));
+        net.setFitness(getFitness(individual));
+        ByteBuffer ints = buffer.duplicate();
+        ints.position(intPosition + 4 * buffer.getInt(intOffsetPosition + 4 * individual));
+        int netSize = ints.getInt();
+        net.setStartActivities(readSubSet(ints));
+        net.setEndActivities(readSubSet(ints));
+        for (int i = 0; i < netSize; i++) {
+            net.setInputSet(i, readSet(ints));
+            net.setOutputSet(i, readSet(ints));
+        }
+        // activities firing
+        int[] firing = net.getActivitiesActualFiring();
+        int numFirings = ints.getInt();
+        for (int i = 0; i < numFirings; i++) {
+            firing[i] = ints.getInt();
+        }
+        // non-zero arc usage
+        DoubleMatrix2D arcUsage = net.getArcUsage();
+        int numArcs = ints.getInt();
+        int valuePosition = doublePosition + 8 * buffer.getInt(doubleOffsetPosition + 4 * individual);
+        for (int i = 0; i < numArcs; i++, valuePosition += 8) {
+            int row = ints.getInt();
+            int column = ints.getInt();
+            arcUsage.setQuick(row, column, buffer.getDouble(valuePosition));
+        }
+        return net;
+    }
+
+    private static HNSubSet readSubSet(ByteBuffer ints) {
+        HNSubSet subset = new HNSubSet();
+        int length = ints.getInt();
+        for (int i = 0; i < length; i++) {
+            subset.add(ints.getInt());
+        }
+        return subset;
+    }
+
+    private static HNSet readSet(ByteBuffer ints) {
+        int length = ints.getInt();
+        if (length == NULL_SET) {
+            return null;
+        }
+        HNSet set = new HNSet();
+        for (int i = 0; i < length; i++) {
+            set.add(readSubSet(ints));
+        }
+        return set;
+    }
+
+    private ActivitiesMappingStructures getMapping(int id) throws IOException {
+        if (mappings[id] == null) {
+            int position = mappingPositions[id];
+            byte[] bytes = new byte[buffer.getInt(position)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + 4);
+            view.get(bytes);
+            DataInputBuffer in = new DataInputBuffer();
+            in.reset(bytes, bytes.length);
+            ActivitiesMappingStructures mapping = new ActivitiesMappingStructures();
+            mapping.readFields(in);
+            mappings[id] = mapping;
+        }
+        return mappings[id];
+    }
+
+    /**
+     * Writes the nets as a columnar population.
+     *
+     * @param out output, it is not closed
+     * @param nets individuals
+     * @throws IOException
+     */
+    public static void write(OutputStream out, List<HeuristicsNetImpl> nets) throws IOException {
+        IntArrayList ints = new IntArrayList();
+        DoubleArrayList doubles = new DoubleArrayList();
+        int[] mappingIds = new int[nets.size()];
+        int[] intOffsets = new int[nets.size() + 1];
+        int[] doubleOffsets = new int[nets.size() + 1];
+        Map<ActivitiesMappingStructures, Integer> ids = new IdentityHashMap<>();
+        List<ActivitiesMappingStructures> mappings = new ArrayList<>();
+        IntArrayList rows = new IntArrayList();
+        IntArrayList columns = new IntArrayList();
+        DoubleArrayList values = new DoubleArrayList();
+        for (int n = 0; n < nets.size(); n++) {
+            HeuristicsNetImpl net = nets.get(n);
+            // mapping, shared by equal instances
+            ActivitiesMappingStructures mapping = net.getActivitiesMappingStructures();
+            Integer id = ids.get(mapping);
+            if (id == null) {
+                id = mappings.indexOf(mapping);
+                if (id < 0) {
+                    id = mappings.size();
+                    mappings.add(mapping);
+                }
+                ids.put(mapping, id);
+            }
+            mappingIds[n] = id;
+            // structure
+            intOffsets[n] = ints.size();
+            doubleOffsets[n] = doubles.size();
+            ints.add(net.size());
+            addSubSet(ints, net.getStartActivities());
+            addSubSet(ints, net.getEndActivities());
+            for (int i = 0; i < net.size(); i++) {
+                addSet(ints, net.getInputSet(i));
+                addSet(ints, net.getOutputSet(i));
+            }
+            // activities firing and non-zero arc usage
+            int[] firing = net.getActivitiesActualFiring();
+            ints.add(firing.length);
+            for (int value : firing) {
+                ints.add(value);
+            }
+            net.getArcUsage().getNonZeros(rows, columns, values);
+            ints.add(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                ints.add(rows.getQuick(i));
+                ints.add(columns.getQuick(i));
+                doubles.add(values.getQuick(i));
+            }
+        }
+        intOffsets[nets.size()] = ints.size();
+        doubleOffsets[nets.size()] = doubles.size();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(nets.size());
+        data.writeInt(mappings.size());
+        data.writeInt(ints.size());
+        data.writeInt(doubles.size());
+        for (HeuristicsNetImpl net : nets) {
+            data.writeDouble(net.getFitness());
+        }
+        for (HeuristicsNetImpl net : nets) {
+            data.writeInt(net.getKey());
+        }
+        writeInts(data, mappingIds, mappingIds.length);
+        writeInts(data, intOffsets, intOffsets.length);
+        writeInts(data, doubleOffsets, doubleOffsets.length);
+        writeInts(data, ints.elements(), ints.size());
+        double[] doubleElements = doubles.elements();
+        for (int i = 0; i < doubles.size(); i++) {
+            data.writeDouble(doubleElements[i]);
+        }
+        DataOutputBuffer mappingBuffer = new DataOutputBuffer();
+        for (ActivitiesMappingStructures mapping : mappings) {
+            mappingBuffer.reset();
+            mapping.write(mappingBuffer);
+            data.writeInt(mappingBuffer.getLength());
+            data.write(mappingBuffer.getData(), 0, mappingBuffer.getLength());
+        }
+        data.flush();
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            data.writeInt(values[i]);
+        }
+    }
+
+    private static void addSubSet(IntArrayList ints, HNSubSet subset) {
+        if (subset == null) {
+            ints.add(0);
+            return;
+        }
+        ints.add(subset.size());
+        for (int i = 0; i < subset.size(); i++) {
+            ints.add(subset.get(i));
+        }
+    }
+
+    private static void addSet(IntArrayList ints, HNSet set) {
+        if (set == null) {
+            ints.add(NULL_SET);
+            return;
+        }
+        ints.add(set.size());
+        for (int i = 0; i < set.size(); i++) {
+            addSubSet(ints, set.get(i));
+        }
+    }
+}
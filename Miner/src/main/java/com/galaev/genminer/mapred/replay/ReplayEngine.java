@@ -0,0 +1,518 @@
+package com.galaev.genminer.mapred.replay;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import com.galaev.genminer.mapred.log.CompiledLog;
+import org.deckfour.xes.classification.XEventClass;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.ActivitiesMappingStructures;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+
+import java.util.Arrays;
+
+/**
+ * Continuous semantics token replay of a compiled log on a {@code HeuristicsNet}.
+ * <p>
+ * Every subset of the input set of an activity is a place. The place is marked
+ * by the activities of the subset, one token slot per such activity, so that
+ * the engine knows which arcs were used. Firing an activity consumes one token
+ * from every its place and produces one token into every place of its successors,
+ * that contains the activity. Missing tokens are created on the fly (the replay
+ * never stops). Activities with the empty input set that are start activities
+ * consume the token of the start place, activities with the empty output set
+ * that are end activities produce the token of the end place.
+ * <p>
+ * The net is compiled into primitive arrays once per individual. All the buffers
+ * grow only, so one engine replays any number of nets, traces and events
+ * without allocating. The engine is not thread safe.
+ * <p>
+ * Every change of the marking is recorded, so the replay can be rolled back
+ * to a checkpoint, taken earlier in the same trace. This lets traces with
+ * a common prefix replay the prefix only once.
+ * <p>
+ * Every event class must be mapped to at most one activity. Nets with duplicate
+ * tasks need a choice between the activities of a class, which is made by
+ * the ProM parser; such nets are rejected (see {@link #canReplay(HeuristicsNet)}).
+ *
+ * @see com.galaev.genminer.mapred.SingleNetFitness
+ * @author Anton Galaev
+ */
+public class ReplayEngine {
+
+    // compiled log, which events are replayed
+    private CompiledLog log;
+
+    // mapping structures of the last loaded net
+    private ActivitiesMappingStructures mapping;
+    // activity of every event class, -1 if the class has no activity
+    private int[] classActivities;
+
+    // number of activities in the loaded net
+    private int size;
+    // whether an activity is a start/end activity
+    private boolean[] startActivities = new boolean[0];
+    private boolean[] endActivities = new boolean[0];
+    // places (input subsets) of every activity: placeStart[a] .. placeStart[a + 1] - 1
+    private int[] placeStart = new int[1];
+    // activity of every place
+    private int[] placeActivity = new int[0];
+    // token slots of every place: slotStart[p] .. slotStart[p + 1] - 1
+    private int[] slotStart = new int[1];
+    // source activity of every slot
+    private int[] slotSource = new int[0];
+    // place of every slot
+    private int[] slotPlace = new int[0];
+    // slots marked by firing of every activity: producedStart[a] .. producedStart[a + 1] - 1
+    private int[] producedStart = new int[1];
+    private int[] produced = new int[0];
+    private int numPlaces;
+    private int numSlots;
+
+    // marking
+    private int[] placeTokens = new int[0];
+    private int[] slotTokens = new int[0];
+    private int startTokens;
+    private int endTokens;
+    private int numTokens;
+    // slots marked during the current trace, to clean the marking quickly
+    private int[] touchedSlots = new int[0];
+    private int numTouchedSlots;
+    private int[] slotEpoch = new int[0];
+    private int epoch;
+
+    // changes of the marking in the current trace (see the undo codes)
+    private int[] changes = new int[64];
+    private int numChanges;
+    // checkpoints: number of changes and counters at the moment of the checkpoint
+    private int[] checkpointChanges = new int[16];
+    private int[] checkpointMissing = new int[16];
+    private int[] checkpointParsed = new int[16];
+    private int numCheckpoints;
+
+    // undo codes: codes >= 0 are slots, that got a token
+    private static final int START_CONSUMED = -1;
+    private static final int END_PRODUCED = -2;
+    // codes <= SLOT_CONSUMED are slots, that lost a token (SLOT_CONSUMED - slot)
+    private static final int SLOT_CONSUMED = -3;
+
+    // counters of the events fired in the current trace
+    private int missingTokens;
+    private int parsedElements;
+
+    // counters of the finished trace
+    private int numMissingTokens;
+    private int numExtraTokensLeftBehind;
+    private int numParsedElements;
+
+    // usage of the net, accumulated for all the replayed traces
+    private int[] actualFiring = new int[0];
+    private double[] slotUsage = new double[0];
+
+    /**
+     * Creates the engine for the compiled log.
+     *
+     * @param log compiled log
+     */
+    public ReplayEngine(CompiledLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Tells whether the engine can replay the net,
+     * i.e. no event class is mapped to several activities.
+     *
+     * @param net heuristics net
+     * @return whether the net has no duplicate tasks
+     */
+    public static boolean canReplay(HeuristicsNet net) {
+        for (HNSubSet activities : net.getActivitiesMappingStructures().getReverseActivitiesMapping().values()) {
+            if (activities != null && activities.size() > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the net for the replay and clears the accumulated usage.
+     *
+     * @param net heuristics net
+     * @throws IllegalArgumentException if the net has duplicate tasks
+     */
+    public void load(HeuristicsNet net) {
+        size = net.size();
+        loadClassActivities(net.getActivitiesMappingStructures());
+        if (startActivities.length < size) {
+            startActivities = new boolean[size];
+            endActivities = new boolean[size];
+            actualFiring = new int[size];
+        }
+        if (placeStart.length < size + 1) {
+            placeStart = new int[size + 1];
+            producedStart = new int[size + 1];
+        }
+        Arrays.fill(startActivities, 0, size, false);
+        Arrays.fill(endActivities, 0, size, false);
+        Arrays.fill(actualFiring, 0, size, 0);
+        markActivities(startActivities, net.getStartActivities());
+        markActivities(endActivities, net.getEndActivities());
+        compilePlaces(net);
+        compileProduced(net);
+        if (placeTokens.length < numPlaces) {
+            placeTokens = new int[numPlaces];
+        }
+        if (slotTokens.length < numSlots) {
+            slotTokens = new int[numSlots];
+            slotEpoch = new int[numSlots];
+            touchedSlots = new int[numSlots];
+            slotUsage = new double[numSlots];
+        }
+        Arrays.fill(placeTokens, 0, numPlaces, 0);
+        Arrays.fill(slotTokens, 0, numSlots, 0);
+        Arrays.fill(slotEpoch, 0, numSlots, 0);
+        Arrays.fill(slotUsage, 0, numSlots, 0.0);
+        epoch = 0;
+        numTouchedSlots = 0;
+    }
+
+    /**
+     * Replays a trace of the compiled log.
+     * The results are available through the counters of the engine.
+     *
+     * @param trace trace number in the compiled log
+     * @param weight number of traces, represented by this one
+     */
+    public void replay(int trace, int weight) {
+        int[] events = log.getEvents();
+        int end = log.getEnd(trace);
+        startTrace();
+        for (int i = log.getStart(trace); i < end; i++) {
+            fire(events[i], weight);
+        }
+        finishTrace();
+    }
+
+    /**
+     * Puts the net into the initial marking and resets the counters of the trace.
+     */
+    public void startTrace() {
+        for (int i = 0; i < numTouchedSlots; i++) {
+            int slot = touchedSlots[i];
+            slotTokens[slot] = 0;
+            placeTokens[slotPlace[slot]] = 0;
+        }
+        numTouchedSlots = 0;
+        epoch++;
+        startTokens = 1;
+        endTokens = 0;
+        numTokens = 1;
+        numChanges = 0;
+        numCheckpoints = 0;
+        missingTokens = 0;
+        parsedElements = 0;
+        numMissingTokens = 0;
+        numExtraTokensLeftBehind = 0;
+        numParsedElements = 0;
+    }
+
+    /**
+     * Fires the activity of the event class.
+     * Events without an activity in the net are skipped.
+     *
+     * @param eventClass index of the event class
+     * @param weight number of traces, represented by the current one
+     */
+    public void fire(int eventClass, int weight) {
+        if (eventClass < 0 || eventClass >= classActivities.length) {
+            return;
+        }
+        int activity = classActivities[eventClass];
+        if (activity < 0) {
+            return;
+        }
+        int missing = 0;
+        // consume
+        if (placeStart[activity] == placeStart[activity + 1]) {
+            if (startActivities[activity]) {
+                if (startTokens > 0) {
+                    startTokens--;
+                    numTokens--;
+                    record(START_CONSUMED);
+                } else {
+                    missing++;
+                }
+            }
+        } else {
+            for (int place = placeStart[activity]; place < placeStart[activity + 1]; place++) {
+                if (placeTokens[place] > 0) {
+                    // any marked slot gives the same counters, the choice only affects the arc usage
+                    int slot = slotStart[place];
+                    while (slotTokens[slot] == 0) {
+                        slot++;
+                    }
+                    slotTokens[slot]--;
+                    placeTokens[place]--;
+                    numTokens--;
+                    slotUsage[slot] += weight;
+                    record(SLOT_CONSUMED - slot);
+                } else {
+                    missing++;
+                }
+            }
+        }
+        // produce
+        if (producedStart[activity] == producedStart[activity + 1]) {
+            if (endActivities[activity]) {
+                endTokens++;
+                numTokens++;
+                record(END_PRODUCED);
+            }
+        } else {
+            for (int i = producedStart[activity]; i < producedStart[activity + 1]; i++) {
+                int slot = produced[i];
+                if (slotEpoch[slot] != epoch) {
+                    slotEpoch[slot] = epoch;
+                    touchedSlots[numTouchedSlots++] = slot;
+                }
+                slotTokens[slot]++;
+                placeTokens[slotPlace[slot]]++;
+                numTokens++;
+                record(slot);
+            }
+        }
+        actualFiring[activity] += weight;
+        if (missing == 0) {
+            parsedElements++;
+        } else {
+            missingTokens += missing;
+        }
+    }
+
+    /**
+     * Completes the trace: the token of the end place is consumed
+     * (or counted as missing), the rest of the tokens are left behind.
+     * The marking itself is not changed, so the replay may continue
+     * from here for the traces, that are longer.
+     */
+    public void finishTrace() {
+        boolean ended = endTokens > 0;
+        numMissingTokens = missingTokens + (ended ? 0 : 1);
+        numExtraTokensLeftBehind = numTokens - (ended ? 1 : 0);
+        numParsedElements = parsedElements;
+    }
+
+    /**
+     * Takes a checkpoint of the current marking and counters.
+     *
+     * @return number of the checkpoint
+     */
+    public int checkpoint() {
+        if (numCheckpoints == checkpointChanges.length) {
+            checkpointChanges = Arrays.copyOf(checkpointChanges, numCheckpoints * 2);
+            checkpointMissing = Arrays.copyOf(checkpointMissing, numCheckpoints * 2);
+            checkpointParsed = Arrays.copyOf(checkpointParsed, numCheckpoints * 2);
+        }
+        checkpointChanges[numCheckpoints] = numChanges;
+        checkpointMissing[numCheckpoints] = missingTokens;
+        checkpointParsed[numCheckpoints] = parsedElements;
+        return numCheckpoints++;
+    }
+
+    /**
+     * Rolls the marking and the counters of the trace back to the checkpoint.
+     * Later checkpoints are dropped, the given one is kept.
+     * Accumulated activities firing and arc usage are not rolled back:
+     * they are weighted by the number of traces, that share the events.
+     *
+     * @param checkpoint number of the checkpoint
+     */
+    public void rollback(int checkpoint) {
+        int target = checkpointChanges[checkpoint];
+        while (numChanges > target) {
+            int change = changes[--numChanges];
+            if (change >= 0) {
+                slotTokens[change]--;
+                placeTokens[slotPlace[change]]--;
+                numTokens--;
+            } else if (change == START_CONSUMED) {
+                startTokens++;
+                numTokens++;
+            } else if (change == END_PRODUCED) {
+                endTokens--;
+                numTokens--;
+            } else {
+                int slot = SLOT_CONSUMED - change;
+                slotTokens[slot]++;
+                placeTokens[slotPlace[slot]]++;
+                numTokens++;
+            }
+        }
+        missingTokens = checkpointMissing[checkpoint];
+        parsedElements = checkpointParsed[checkpoint];
+        numCheckpoints = checkpoint + 1;
+    }
+
+    private void record(int change) {
+        if (numChanges == changes.length) {
+            changes = Arrays.copyOf(changes, numChanges * 2);
+        }
+        changes[numChanges++] = change;
+    }
+
+    /**
+     * Adds the accumulated activities firing and arc usage to the net.
+     *
+     * @param net the net, that was loaded into the engine
+     */
+    public void writeUsage(HeuristicsNet net) {
+        for (int activity = 0; activity < size; activity++) {
+            if (actualFiring[activity] > 0) {
+                net.increaseElementActualFiring(activity, actualFiring[activity]);
+            }
+        }
+        DoubleMatrix2D arcUsage = net.getArcUsage();
+        for (int slot = 0; slot < numSlots; slot++) {
+            int source = slotSource[slot];
+            if (slotUsage[slot] > 0 && source >= 0 && source < size) {
+                int target = placeActivity[slotPlace[slot]];
+                arcUsage.setQuick(source, target, arcUsage.getQuick(source, target) + slotUsage[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns the activity, fired by the events of the class
+     * in the last loaded net.
+     *
+     * @param eventClass index of the event class
+     * @return activity, -1 if the events are skipped
+     */
+    public int getActivity(int eventClass) {
+        return eventClass >= 0 && eventClass < classActivities.length ? classActivities[eventClass] : -1;
+    }
+
+    public int getNumMissingTokens() {
+        return numMissingTokens;
+    }
+
+    public int getNumExtraTokensLeftBehind() {
+        return numExtraTokensLeftBehind;
+    }
+
+    public int getNumParsedElements() {
+        return numParsedElements;
+    }
+
+    /**
+     * Maps event classes of the log to activities of the net.
+     * The table is kept while the nets share the same mapping structures.
+     */
+    private void loadClassActivities(ActivitiesMappingStructures mapping) {
+        if (mapping == this.mapping && classActivities != null) {
+            return;
+        }
+        this.mapping = mapping;
+        classActivities = new int[log.getNumberOfClasses()];
+        for (int i = 0; i < classActivities.length; i++) {
+            XEventClass eventClass = log.getEventClass(i);
+            HNSubSet activities = eventClass == null ? null : mapping.getReverseActivitiesMapping().get(eventClass);
+            if (activities != null && activities.size() > 1) {
+                this.mapping = null;
+                classActivities = null;
+                throw new IllegalArgumentException("Duplicate tasks of the event class " + eventClass
+                        + " can't be replayed");
+            }
+            classActivities[i] = activities == null || activities.size() == 0 ? -1 : activities.get(0);
+        }
+    }
+
+    private void markActivities(boolean[] marks, HNSubSet activities) {
+        if (activities == null) {
+            return;
+        }
+        for (int i = 0; i < activities.size(); i++) {
+            int activity = activities.get(i);
+            if (activity >= 0 && activity < size) {
+                marks[activity] = true;
+            }
+        }
+    }
+
+    /**
+     * Creates a place for every subset of every input set.
+     */
+    private void compilePlaces(HeuristicsNet net) {
+        numPlaces = 0;
+        numSlots = 0;
+        for (int activity = 0; activity < size; activity++) {
+            placeStart[activity] = numPlaces;
+            HNSet inputSet = net.getInputSet(activity);
+            int subsets = inputSet == null ? 0 : inputSet.size();
+            for (int i = 0; i < subsets; i++) {
+                HNSubSet subset = inputSet.get(i);
+                ensurePlaces(numPlaces + 1);
+                ensureSlots(numSlots + subset.size());
+                placeActivity[numPlaces] = activity;
+                slotStart[numPlaces] = numSlots;
+                for (int j = 0; j < subset.size(); j++) {
+                    slotSource[numSlots] = subset.get(j);
+                    slotPlace[numSlots] = numPlaces;
+                    numSlots++;
+                }
+                numPlaces++;
+            }
+        }
+        placeStart[size] = numPlaces;
+        slotStart[numPlaces] = numSlots;
+    }
+
+    /**
+     * Lists for every activity the slots, that get a token when it fires:
+     * for every subset of its output set and every successor in the subset,
+     * the slots of this activity in all the places of the successor.
+     */
+    private void compileProduced(HeuristicsNet net) {
+        int numProduced = 0;
+        for (int activity = 0; activity < size; activity++) {
+            producedStart[activity] = numProduced;
+            HNSet outputSet = net.getOutputSet(activity);
+            int subsets = outputSet == null ? 0 : outputSet.size();
+            for (int i = 0; i < subsets; i++) {
+                HNSubSet subset = outputSet.get(i);
+                for (int j = 0; j < subset.size(); j++) {
+                    int successor = subset.get(j);
+                    if (successor < 0 || successor >= size) {
+                        continue;
+                    }
+                    for (int place = placeStart[successor]; place < placeStart[successor + 1]; place++) {
+                        for (int slot = slotStart[place]; slot < slotStart[place + 1]; slot++) {
+                            if (slotSource[slot] == activity) {
+                                if (numProduced == produced.length) {
+                                    produced = Arrays.copyOf(produced, numProduced * 2 + 16);
+                                }
+                                produced[numProduced++] = slot;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        producedStart[size] = numProduced;
+    }
+
+    private void ensurePlaces(int capacity) {
+        if (placeActivity.length < capacity) {
+            int length = Math.max(capacity, placeActivity.length * 2);
+            placeActivity = Arrays.copyOf(placeActivity, length);
+            slotStart = Arrays.copyOf(slotStart, length + 1);
+        }
+    }
+
+    private void ensureSlots(int capacity) {
+        if (slotSource.length < capacity) {
+            int length = Math.max(capacity, slotSource.length * 2);
+            slotSource = Arrays.copyOf(slotSource, length);
+            slotPlace = Arrays.copyOf(slotPlace, length);
+        }
+    }
+}
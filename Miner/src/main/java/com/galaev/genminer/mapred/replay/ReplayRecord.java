@@ -0,0 +1,201 @@
+package com.galaev.genminer.mapred.replay;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Results of the last full replay of a net, kept with the net.
+ * Holds a fingerprint of every activity (its input and output sets
+ * and whether it is a start/end activity) and the contribution of every
+ * trace variant to the fitness (missing tokens, tokens left behind
+ * and parsed events of one trace of the variant).
+ * <p>
+ * When the net is evaluated again, the activities, which fingerprints
+ * differ, are the ones changed since the record was made, so only the
+ * variants, that fire them, must be replayed again. A record is never
+ * modified after it is made, so it is shared by the copies of the net.
+ * <p>
+ * A fingerprint is a 64-bit hash, every value is mixed by a bijective
+ * finalizer, so a changed activity keeps its fingerprint with the chance
+ * of about 2^-64. Such a collision reuses stale contributions of the variants,
+ * so the fitness is wrong. For a run of E evaluations of nets with n activities
+ * the chance is at most E * n * 2^-64: about 3 * 10^-8 for a billion
+ * evaluations of nets with 500 activities. A record is written
+ * with the net only when the incremental fitness is on.
+ *
+ * @see com.galaev.genminer.mapred.SingleNetFitness
+ * @author Anton Galaev
+ */
+public class ReplayRecord implements Writable {
+
+    // fingerprint of every activity
+    private long[] fingerprints;
+    // number of events in the replayed variants, to recognize the log
+    private long numEvents;
+    // contribution of every variant
+    private int[] missingTokens;
+    private int[] extraTokensLeftBehind;
+    private int[] parsedElements;
+
+    /**
+     * Default constructor for Hadoop serialization purposes.
+     */
+    public ReplayRecord() {
+    }
+
+    /**
+     * Creates a record for the net with the given number of variants.
+     * The contributions are filled in by the fitness calculator.
+     *
+     * @param net replayed net
+     * @param numVariants number of variants in the log
+     * @param numEvents number of events in the log
+     */
+    public ReplayRecord(HeuristicsNet net, int numVariants, long numEvents) {
+        this.fingerprints = fingerprints(net);
+        this.numEvents = numEvents;
+        this.missingTokens = new int[numVariants];
+        this.extraTokensLeftBehind = new int[numVariants];
+        this.parsedElements = new int[numVariants];
+    }
+
+    /**
+     * Tells whether the record belongs to a net of the same size
+     * and to the same variants of the log.
+     *
+     * @param net evaluated net
+     * @param numVariants number of variants in the log
+     * @param numEvents number of events in the log
+     * @return whether the record can be reused
+     */
+    public boolean matches(HeuristicsNet net, int numVariants, long numEvents) {
+        return fingerprints.length == net.size() && missingTokens.length == numVariants
+                && this.numEvents == numEvents;
+    }
+
+    /**
+     * Finds the activities, that changed since the record was made.
+     *
+     * @param current fingerprints of the net now
+     * @return for every activity, whether it changed
+     */
+    public boolean[] changedActivities(long[] current) {
+        boolean[] changed = new boolean[fingerprints.length];
+        for (int i = 0; i < fingerprints.length; i++) {
+            changed[i] = fingerprints[i] != current[i];
+        }
+        return changed;
+    }
+
+    /**
+     * Records the contribution of one trace of the variant.
+     *
+     * @param variant variant number
+     * @param missing missing tokens
+     * @param extra tokens left behind
+     * @param parsed parsed events
+     */
+    public void setContribution(int variant, int missing, int extra, int parsed) {
+        missingTokens[variant] = missing;
+        extraTokensLeftBehind[variant] = extra;
+        parsedElements[variant] = parsed;
+    }
+
+    public int getMissingTokens(int variant) {
+        return missingTokens[variant];
+    }
+
+    public int getExtraTokensLeftBehind(int variant) {
+        return extraTokensLeftBehind[variant];
+    }
+
+    public int getParsedElements(int variant) {
+        return parsedElements[variant];
+    }
+
+    /**
+     * Computes the fingerprints of all the activities of the net.
+     *
+     * @param net heuristics net
+     * @return fingerprint of every activity
+     */
+    public static long[] fingerprints(HeuristicsNet net) {
+        long[] fingerprints = new long[net.size()];
+        HNSubSet start = net.getStartActivities();
+        HNSubSet end = net.getEndActivities();
+        for (int i = 0; i < fingerprints.length; i++) {
+            long hash = 17;
+            hash = hash(hash, net.getInputSet(i));
+            hash = hash(hash, net.getOutputSet(i));
+            hash = mix(hash + (start != null && start.contains(i) ? 1 : 2));
+            hash = mix(hash + (end != null && end.contains(i) ? 1 : 2));
+            fingerprints[i] = hash;
+        }
+        return fingerprints;
+    }
+
+    private static long hash(long hash, HNSet set) {
+        if (set == null) {
+            return mix(hash - 1);
+        }
+        hash = mix(hash + set.size());
+        for (int i = 0; i < set.size(); i++) {
+            HNSubSet subset = set.get(i);
+            hash = mix(hash + subset.size());
+            for (int j = 0; j < subset.size(); j++) {
+                hash = mix(hash + subset.get(j));
+            }
+        }
+        return hash;
+    }
+
+    // finalizer of MurmurHash3, a bijection of 64-bit values
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(numEvents);
+        WritableUtils.writeVInt(out, fingerprints.length);
+        for (long fingerprint : fingerprints) {
+            out.writeLong(fingerprint);
+        }
+        WritableUtils.writeVInt(out, missingTokens.length);
+        for (int i = 0; i < missingTokens.length; i++) {
+            WritableUtils.writeVInt(out, missingTokens[i]);
+            WritableUtils.writeVInt(out, extraTokensLeftBehind[i]);
+            WritableUtils.writeVInt(out, parsedElements[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        numEvents = in.readLong();
+        fingerprints = new long[WritableUtils.readVInt(in)];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = in.readLong();
+        }
+        int numVariants = WritableUtils.readVInt(in);
+        missingTokens = new int[numVariants];
+        extraTokensLeftBehind = new int[numVariants];
+        parsedElements = new int[numVariants];
+        for (int i = 0; i < numVariants; i++) {
+            missingTokens[i] = WritableUtils.readVInt(in);
+            extraTokensLeftBehind[i] = WritableUtils.readVInt(in);
+            parsedElements[i] = WritableUtils.readVInt(in);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.galaev.genminer.mapred.writables;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Fitness statistics of the individuals, evaluated in a generation:
+ * their number, the minimum, the sum and the maximum of the fitness
+ * and the key of the best individual. Every map task writes the statistics
+ * of its individuals to a side file in the {@code _stats} folder of the
+ * generation, which is skipped as input; the driver merges them.
+ *
+ * @see com.galaev.genminer.mapred.MinerMapper
+ * @author Anton Galaev
+ */
+public class FitnessStatistics implements Writable {
+
+    // folder of the side files in the output of a generation
+    public static final String STATS_FOLDER = "_stats";
+
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum;
+    // key of the individual with the maximal fitness, -1 if there are no individuals
+    private int bestKey = -1;
+
+    /**
+     * Adds the evaluated individual.
+     *
+     * @param key key of the individual
+     * @param fitness fitness of the individual
+     */
+    public void add(int key, double fitness) {
+        count++;
+        min = Math.min(min, fitness);
+        sum += fitness;
+        if (fitness > max) {
+            max = fitness;
+            bestKey = key;
+        }
+    }
+
+    /**
+     * Adds the individuals of other statistics.
+     *
+     * @param other statistics
+     */
+    public void merge(FitnessStatistics other) {
+        count += other.count;
+        min = Math.min(min, other.min);
+        sum += other.sum;
+        if (other.max > max) {
+            max = other.max;
+            bestKey = other.bestKey;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getBestKey() {
+        return bestKey;
+    }
+
+    /**
+     * Writes the statistics to the side file.
+     *
+     * @param fs file system
+     * @param path path to the file
+     * @throws IOException
+     */
+    public void write(FileSystem fs, Path path) throws IOException {
+        FSDataOutputStream out = fs.create(path, true);
+        try {
+            write(out);
+        } finally {
+            IOUtils.closeStream(out);
+        }
+    }
+
+    /**
+     * Reads and merges all the side files of the generation.
+     *
+     * @param fs file system
+     * @param conf configuration
+     * @param generation folder of the generation
+     * @return merged statistics, empty if there are no side files
+     * @throws IOException
+     */
+    public static FitnessStatistics read(FileSystem fs, Configuration conf, Path generation) throws IOException {
+        FitnessStatistics statistics = new FitnessStatistics();
+        FileStatus[] files = fs.globStatus(new Path(new Path(generation, STATS_FOLDER), "*"));
+        if (files != null) {
+            FitnessStatistics part = new FitnessStatistics();
+            for (FileStatus file : files) {
+                FSDataInputStream in = fs.open(file.getPath());
+                try {
+                    part.readFields(in);
+                } finally {
+                    IOUtils.closeStream(in);
+                }
+                statistics.merge(part);
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeDouble(sum);
+        out.writeInt(bestKey);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        count = in.readLong();
+        min = in.readDouble();
+        max = in.readDouble();
+        sum = in.readDouble();
+        bestKey = in.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return count + " individuals, fitness " + min + " min, " + getMean() + " mean, "
+                + max + " max (#" + bestKey + ")";
+    }
+}
@@ -0,0 +1,182 @@
+package com.galaev.genminer.mapred.writables;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.processmining.models.heuristics.impl.ActivitiesMappingStructures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the activities mappings, shared by all the nets in a JVM.
+ * The mappings of a run are registered once by the driver and written
+ * to a side file; the tasks load the file. A net with a registered mapping
+ * is serialized with the id of the mapping instead of the mapping itself,
+ * and all the nets, read with the same id, share one instance.
+ * <p>
+ * The registry holds the mappings of one side file at a time. A JVM, that
+ * runs tasks of several runs, loads the file of every new run in place of
+ * the mappings of the previous one.
+ *
+ * @see org.processmining.models.heuristics.impl.HeuristicsNetImpl
+ * @author Anton Galaev
+ */
+public final class MappingRegistry {
+
+    // job parameter: path to the side file with the mappings of the run
+    public static final String MAPPING_FILE = "mappingFile";
+
+    // mappings by their ids
+    private static List<ActivitiesMappingStructures> mappings = new ArrayList<>();
+    // ids of the registered instances
+    private static Map<ActivitiesMappingStructures, Integer> ids = new IdentityHashMap<>();
+    // side file, which the mappings came from or went to, null if none
+    private static String file;
+
+    private MappingRegistry() {
+    }
+
+    /**
+     * Registers the mapping, if it is not registered yet.
+     * An instance, equal to a registered mapping, gets the id of that mapping.
+     *
+     * @param mapping activities mapping
+     * @return id of the mapping
+     */
+    public static synchronized int register(ActivitiesMappingStructures mapping) {
+        Integer id = ids.get(mapping);
+        if (id == null) {
+            for (int i = 0; i < mappings.size() && id == null; i++) {
+                if (mapping.equals(mappings.get(i))) {
+                    id = i;
+                }
+            }
+            if (id == null) {
+                id = mappings.size();
+                mappings.add(mapping);
+            }
+            ids.put(mapping, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the mapping instance.
+     *
+     * @param mapping activities mapping
+     * @return id, or null if the instance is not registered
+     */
+    public static synchronized Integer getId(ActivitiesMappingStructures mapping) {
+        return ids.get(mapping);
+    }
+
+    /**
+     * Returns the registered mapping.
+     *
+     * @param id id of the mapping
+     * @return shared instance of the mapping
+     * @throws IOException if there is no such mapping
+     */
+    public static synchronized ActivitiesMappingStructures get(int id) throws IOException {
+        if (id < 0 || id >= mappings.size() || mappings.get(id) == null) {
+            throw new IOException("Activities mapping #" + id + " is not registered");
+        }
+        return mappings.get(id);
+    }
+
+    /**
+     * Forgets all the mappings, so that the nets are written
+     * with their mappings again.
+     */
+    public static synchronized void clear() {
+        mappings.clear();
+        ids.clear();
+        file = null;
+    }
+
+    /**
+     * Writes all the registered mappings to the file.
+     *
+     * @param fs file system
+     * @param conf configuration
+     * @param path path to the file
+     * @throws IOException
+     */
+    public static synchronized void write(FileSystem fs, Configuration conf, Path path) throws IOException {
+        SequenceFile.Writer writer = null;
+        try {
+            writer = SequenceFile.createWriter(fs, conf, path, IntWritable.class, ActivitiesMappingStructures.class);
+            for (int id = 0; id < mappings.size(); id++) {
+                writer.append(new IntWritable(id), mappings.get(id));
+            }
+        } finally {
+            IOUtils.closeStream(writer);
+        }
+        file = fileKey(fs, path);
+    }
+
+    /**
+     * Loads the mappings of the job, if the job has the side file.
+     *
+     * @param conf job configuration
+     * @throws IOException
+     */
+    public static void load(Configuration conf) throws IOException {
+        String file = conf.get(MAPPING_FILE);
+        if (file != null) {
+            load(FileSystem.get(conf), conf, new Path(file));
+        }
+    }
+
+    /**
+     * Replaces the registered mappings by the mappings from the file.
+     * Nothing is done, if the registry already holds the same file:
+     * the path and the modification time are the same.
+     *
+     * @param fs file system
+     * @param conf configuration
+     * @param path path to the file
+     * @throws IOException
+     */
+    public static synchronized void load(FileSystem fs, Configuration conf, Path path) throws IOException {
+        String key = fileKey(fs, path);
+        if (key.equals(file)) {
+            return;
+        }
+        clear();
+        SequenceFile.Reader reader = null;
+        try {
+            reader = new SequenceFile.Reader(fs, path, conf);
+            IntWritable id = new IntWritable();
+            ActivitiesMappingStructures mapping = new ActivitiesMappingStructures();
+            while (reader.next(id, mapping)) {
+                while (mappings.size() <= id.get()) {
+                    mappings.add(null);
+                }
+                mappings.set(id.get(), mapping);
+                ids.put(mapping, id.get());
+                mapping = new ActivitiesMappingStructures();
+            }
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            IOUtils.closeStream(reader);
+        }
+        file = key;
+    }
+
+    // identifies the side file of a run: its qualified path and modification time
+    private static String fileKey(FileSystem fs, Path path) throws IOException {
+        FileStatus status = fs.getFileStatus(path);
+        return fs.makeQualified(path) + "@" + status.getModificationTime();
+    }
+}
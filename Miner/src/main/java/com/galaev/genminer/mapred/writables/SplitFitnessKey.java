@@ -0,0 +1,146 @@
+package com.galaev.genminer.mapred.writables;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Key of the map output: the split number of an individual and its fitness.
+ * The keys are sorted by the split and then by the fitness, and grouped
+ * by the split only, so every reduce call gets the individuals of one split
+ * already ordered the same way as {@code HeuristicsNetImpl.compareTo} does.
+ * Both comparators work on the serialized bytes.
+ *
+ * @see com.galaev.genminer.mapred.MinerReducer
+ * @author Anton Galaev
+ */
+public class SplitFitnessKey implements WritableComparable<SplitFitnessKey> {
+
+    // serialized length of the split number
+    private static final int SPLIT_LENGTH = 4;
+
+    // number of the split
+    private int split;
+    // fitness of the individual
+    private double fitness;
+
+    static {
+        WritableComparator.define(SplitFitnessKey.class, new Comparator());
+    }
+
+    /**
+     * Default constructor for Hadoop serialization purposes.
+     */
+    public SplitFitnessKey() {
+    }
+
+    public SplitFitnessKey(int split, double fitness) {
+        set(split, fitness);
+    }
+
+    public void set(int split, double fitness) {
+        this.split = split;
+        this.fitness = fitness;
+    }
+
+    public int getSplit() {
+        return split;
+    }
+
+    public double getFitness() {
+        return fitness;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(split);
+        out.writeDouble(fitness);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        split = in.readInt();
+        fitness = in.readDouble();
+    }
+
+    @Override
+    public int compareTo(SplitFitnessKey other) {
+        return compare(split, fitness, other.split, other.fitness);
+    }
+
+    private static int compare(int split1, double fitness1, int split2, double fitness2) {
+        if (split1 != split2) {
+            return split1 < split2 ? -1 : 1;
+        }
+        return Double.compare(fitness1, fitness2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SplitFitnessKey)) {
+            return false;
+        }
+        SplitFitnessKey other = (SplitFitnessKey) o;
+        return compareTo(other) == 0;
+    }
+
+    /**
+     * Hash code depends on the split only, so the default partitioning
+     * keeps the individuals of a split together.
+     *
+     * @return split number
+     */
+    @Override
+    public int hashCode() {
+        return split;
+    }
+
+    @Override
+    public String toString() {
+        return split + ":" + fitness;
+    }
+
+    /**
+     * Sort comparator: by the split, then by the fitness.
+     */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(SplitFitnessKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return SplitFitnessKey.compare(readInt(b1, s1), readDouble(b1, s1 + SPLIT_LENGTH),
+                    readInt(b2, s2), readDouble(b2, s2 + SPLIT_LENGTH));
+        }
+    }
+
+    /**
+     * Grouping comparator: by the split only.
+     */
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(SplitFitnessKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int split1 = readInt(b1, s1);
+            int split2 = readInt(b2, s2);
+            return split1 < split2 ? -1 : (split1 == split2 ? 0 : 1);
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public int compare(WritableComparable a, WritableComparable b) {
+            int split1 = ((SplitFitnessKey) a).split;
+            int split2 = ((SplitFitnessKey) b).split;
+            return split1 < split2 ? -1 : (split1 == split2 ? 0 : 1);
+        }
+    }
+}
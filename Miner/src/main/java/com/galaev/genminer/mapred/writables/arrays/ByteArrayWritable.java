@@ -1,15 +1,74 @@
 package com.galaev.genminer.mapred.writables.arrays;
 
-import org.apache.hadoop.io.ArrayWritable;
-import org.apache.hadoop.io.ByteWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Writable wrapper for byte arrays.
+ * Writes the length and the bytes straight to the output,
+ * without a {@code ByteWritable} per value. The wire format is the same
+ * as of an {@code ArrayWritable} of {@code ByteWritable}.
  *
  * @author Anton Galaev
  */
-public class ByteArrayWritable extends ArrayWritable {
+public class ByteArrayWritable implements Writable {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] values = EMPTY;
+
     public ByteArrayWritable() {
-        super(ByteWritable.class);
     }
-}
\ No newline at end of file
+
+    public ByteArrayWritable(byte[] values) {
+        set(values);
+    }
+
+    public void set(byte[] values) {
+        this.values = values;
+    }
+
+    public byte[] get() {
+        return values;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        writeArray(out, values);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        values = readArray(in, values);
+    }
+
+    /**
+     * Writes the array.
+     *
+     * @param out output
+     * @param values array to write
+     * @throws IOException
+     */
+    public static void writeArray(DataOutput out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    /**
+     * Reads an array. The given array is reused, if it has the same length.
+     *
+     * @param in input
+     * @param reuse array to read into, may be null
+     * @return read array
+     * @throws IOException
+     */
+    public static byte[] readArray(DataInput in, byte[] reuse) throws IOException {
+        int length = in.readInt();
+        byte[] values = reuse != null && reuse.length == length ? reuse : new byte[length];
+        in.readFully(values);
+        return values;
+    }
+}
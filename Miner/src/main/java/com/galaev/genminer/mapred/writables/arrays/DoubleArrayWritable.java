@@ -1,15 +1,78 @@
 package com.galaev.genminer.mapred.writables.arrays;
 
-import org.apache.hadoop.io.ArrayWritable;
-import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Writable wrapper for double arrays.
+ * Writes the length and the values straight to the output,
+ * without a {@code DoubleWritable} per value. The wire format is the same
+ * as of an {@code ArrayWritable} of {@code DoubleWritable}.
  *
  * @author Anton Galaev
  */
-public class DoubleArrayWritable extends ArrayWritable {
+public class DoubleArrayWritable implements Writable {
+
+    private static final double[] EMPTY = new double[0];
+
+    private double[] values = EMPTY;
+
     public DoubleArrayWritable() {
-        super(DoubleWritable.class);
+    }
+
+    public DoubleArrayWritable(double[] values) {
+        set(values);
+    }
+
+    public void set(double[] values) {
+        this.values = values;
+    }
+
+    public double[] get() {
+        return values;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        writeArray(out, values);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        values = readArray(in, values);
+    }
+
+    /**
+     * Writes the array.
+     *
+     * @param out output
+     * @param values array to write
+     * @throws IOException
+     */
+    public static void writeArray(DataOutput out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Reads an array. The given array is reused, if it has the same length.
+     *
+     * @param in input
+     * @param reuse array to read into, may be null
+     * @return read array
+     * @throws IOException
+     */
+    public static double[] readArray(DataInput in, double[] reuse) throws IOException {
+        int length = in.readInt();
+        double[] values = reuse != null && reuse.length == length ? reuse : new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
     }
 }
@@ -1,17 +1,78 @@
 package com.galaev.genminer.mapred.writables.arrays;
 
-import org.apache.hadoop.io.ArrayWritable;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Writable wrapper for int arrays.
+ * Writes the length and the values straight to the output,
+ * without an {@code IntWritable} per value. The wire format is the same
+ * as of an {@code ArrayWritable} of {@code IntWritable}.
  *
  * @author Anton Galaev
  */
-public class IntArrayWritable extends ArrayWritable {
+public class IntArrayWritable implements Writable {
+
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values = EMPTY;
+
+    public IntArrayWritable() {
+    }
+
+    public IntArrayWritable(int[] values) {
+        set(values);
+    }
+
+    public void set(int[] values) {
+        this.values = values;
+    }
+
+    public int[] get() {
+        return values;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        writeArray(out, values);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        values = readArray(in, values);
+    }
 
-    public IntArrayWritable()  {
-         super(IntWritable.class);
+    /**
+     * Writes the array.
+     *
+     * @param out output
+     * @param values array to write
+     * @throws IOException
+     */
+    public static void writeArray(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
     }
 
+    /**
+     * Reads an array. The given array is reused, if it has the same length.
+     *
+     * @param in input
+     * @param reuse array to read into, may be null
+     * @return read array
+     * @throws IOException
+     */
+    public static int[] readArray(DataInput in, int[] reuse) throws IOException {
+        int length = in.readInt();
+        int[] values = reuse != null && reuse.length == length ? reuse : new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
 }
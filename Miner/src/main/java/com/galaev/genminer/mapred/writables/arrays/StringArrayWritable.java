@@ -1,15 +1,79 @@
 package com.galaev.genminer.mapred.writables.arrays;
 
-import org.apache.hadoop.io.ArrayWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
  * Writable wrapper for String arrays.
+ * Writes every string as {@code Text} does, without a {@code Text}
+ * object per value. The wire format is the same as of an
+ * {@code ArrayWritable} of {@code Text}.
  *
  * @author Anton Galaev
  */
-public class StringArrayWritable extends ArrayWritable {
+public class StringArrayWritable implements Writable {
+
+    private static final String[] EMPTY = new String[0];
+
+    private String[] values = EMPTY;
+
     public StringArrayWritable() {
-        super(Text.class);
+    }
+
+    public StringArrayWritable(String[] values) {
+        set(values);
+    }
+
+    public void set(String[] values) {
+        this.values = values;
+    }
+
+    public String[] get() {
+        return values;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        writeArray(out, values);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        values = readArray(in, values);
+    }
+
+    /**
+     * Writes the array.
+     *
+     * @param out output
+     * @param values array to write
+     * @throws IOException
+     */
+    public static void writeArray(DataOutput out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            Text.writeString(out, value);
+        }
+    }
+
+    /**
+     * Reads an array. The given array is reused, if it has the same length.
+     *
+     * @param in input
+     * @param reuse array to read into, may be null
+     * @return read array
+     * @throws IOException
+     */
+    public static String[] readArray(DataInput in, String[] reuse) throws IOException {
+        int length = in.readInt();
+        String[] values = reuse != null && reuse.length == length ? reuse : new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = Text.readString(in);
+        }
+        return values;
     }
 }
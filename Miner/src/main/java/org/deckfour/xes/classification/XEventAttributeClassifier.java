@@ -39,8 +39,6 @@
 package org.deckfour.xes.classification;
 
 import com.galaev.genminer.mapred.writables.arrays.StringArrayWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.deckfour.xes.model.XAttribute;
 import org.deckfour.xes.model.XEvent;
@@ -206,25 +204,12 @@ public class XEventAttributeClassifier implements XEventClassifier,
     @Override
     public void write(DataOutput out) throws IOException {
         out.writeUTF(name);
-        StringArrayWritable arrayWritable = new StringArrayWritable();
-        Text[] texts = new Text[keys.length];
-        for (int i = 0; i < keys.length; ++i) {
-            texts[i] = new Text(keys[i]);
-        }
-        arrayWritable.set(texts);
-        arrayWritable.write(out);
+        StringArrayWritable.writeArray(out, keys);
     }
 
     @Override
     public void readFields(DataInput in) throws IOException {
         name = in.readUTF();
-        StringArrayWritable arrayWritable = new StringArrayWritable();
-        arrayWritable.readFields(in);
-        Writable[] writables = arrayWritable.get();
-        keys = new String[writables.length];
-        for (int i = 0; i < writables.length; ++i) {
-            Text writable = (Text) writables[i];
-            keys[i] = writable.toString();
-        }
+        keys = StringArrayWritable.readArray(in, null);
     }
 }
@@ -127,6 +127,9 @@ public class ActivitiesMappingStructures implements Writable {
         //creating the reverse activities mapping
         reverseActivitiesMapping = buildReverseActivitiesMapping(activitiesMapping);
 
+        //choosing the representation of the subsets
+        HNSubSet.setNumberOfActivities(activitiesMapping.length);
+
     }
 
     /**
@@ -262,6 +265,9 @@ public class ActivitiesMappingStructures implements Writable {
 
         if (!(o instanceof ActivitiesMappingStructures) || (o == null)) {
             return false;
+        } else if (o == this) {
+            // the nets of a run share one instance
+            return true;
         } else {
             ActivitiesMappingStructures other = (ActivitiesMappingStructures) o;
             if (activitiesMapping.length != other.getActivitiesMapping().length) {
@@ -281,13 +287,14 @@ public class ActivitiesMappingStructures implements Writable {
     /**
      * Calculates the hash code value of this
      * <code>ActivitiesMappingStructure</code> object. The hash code value is
-     * based on the string representation of this object.
+     * based on the activities mapping, the same as the equality,
+     * and not on the string representation, that is long to build.
      *
      * @return the hash code value for this object
      */
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        return Arrays.hashCode(activitiesMapping);
     }
 
     @Override
@@ -317,6 +324,7 @@ public class ActivitiesMappingStructures implements Writable {
         for (int i = 0; i < activitiesMapping.length; i++) {
             activitiesMapping[i] = (XEventClass) writables[i];
         }
+        HNSubSet.setNumberOfActivities(activitiesMapping.length);
         // read reverse activities mapping
         int size = in.readInt();
         for (int i = 0; i < size; i++) {
@@ -1,6 +1,7 @@
 package org.processmining.models.heuristics.impl;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -153,7 +154,7 @@ public class HNSet implements Writable {
 
                     // increase capacity if needed
                     if (size == set.length) {
-                        HNSubSet[] newSet = new HNSubSet[set.length * 2];
+                        HNSubSet[] newSet = new HNSubSet[set.length * 2 + 1];
 
                         System.arraycopy(set, 0, newSet, 0, set.length);
                         set = newSet;
@@ -196,6 +197,8 @@ public class HNSet implements Writable {
         if (pos >= 0) {
             System.arraycopy(set, pos + 1, set, pos, size - pos - 1);
             size--;
+            // the freed slot must not keep a second reference to the last subset
+            set[size] = null;
         }
     }
 
@@ -305,14 +308,10 @@ public class HNSet implements Writable {
      */
     public static final HNSubSet getUnionSet(HNSet set) {
         HNSubSet unionSet = new HNSubSet();
-        HNSubSet subset = null;
 
+        // with the bits, every subset is added by a bitwise OR
         for (int i = 0; i < set.size(); i++) {
-            subset = set.get(i);
-            for (int j = 0; j < subset.size(); j++) {
-                unionSet.add(subset.get(j));
-            }
-
+            unionSet.addAll(set.get(i));
         }
 
         return unionSet;
@@ -355,10 +354,73 @@ public class HNSet implements Writable {
     @Override
     public void readFields(DataInput in) throws IOException {
         size = in.readInt();
-        set = new HNSubSet[size * 2];
+        ensureReadCapacity(size * 2);
         for (int i = 0; i < size; ++i) {
-            set[i] = new HNSubSet();
+            if (set[i] == null) {
+                set[i] = new HNSubSet();
+            }
             set[i].readFields(in);
         }
     }
+
+    // grows the array for reading, keeping the subsets to be read into
+    private void ensureReadCapacity(int capacity) {
+        if (set.length < capacity) {
+            HNSubSet[] newSet = new HNSubSet[capacity];
+            System.arraycopy(set, 0, newSet, 0, set.length);
+            set = newSet;
+        }
+    }
+
+    /**
+     * Writes the set in the compact form: the number of subsets
+     * and every subset in the compact form.
+     *
+     * @param out output
+     * @throws IOException
+     */
+    public void writeCompact(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        for (int i = 0; i < size; ++i) {
+            set[i].writeCompact(out);
+        }
+    }
+
+    /**
+     * Reads a set, written in the compact form.
+     * The subsets are already ordered, so they are read into
+     * an array of the exact size.
+     *
+     * @param in input
+     * @return new set
+     * @throws IOException
+     */
+    public static HNSet readCompact(DataInput in) throws IOException {
+        int size = WritableUtils.readVInt(in);
+        HNSubSet[] set = new HNSubSet[size];
+        for (int i = 0; i < size; ++i) {
+            set[i] = HNSubSet.readCompact(in);
+        }
+        return new HNSet(set, size);
+    }
+
+    /**
+     * Reads a set, written in the compact form, into this set.
+     * The array and the subsets, that are already there (beyond the size
+     * too), are reused, so they must not be shared with other sets.
+     *
+     * @param in input
+     * @throws IOException
+     */
+    public void readCompactFields(DataInput in) throws IOException {
+        size = WritableUtils.readVInt(in);
+        ensureReadCapacity(size);
+        for (int i = 0; i < size; ++i) {
+            if (set[i] == null) {
+                set[i] = HNSubSet.readCompact(in);
+            } else {
+                set[i].readCompactFields(in);
+            }
+        }
+    }
 }
@@ -1,18 +1,24 @@
 package org.processmining.models.heuristics.impl;
 
 import com.galaev.genminer.mapred.writables.arrays.IntArrayWritable;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
  * Ordered set of <code>int</code> that is used to represent subsets in the
  * input and output sets of <code>HeuristicsNet</code> objects.
+ * <p>
+ * When the number of activities is small enough (see {@link #MAX_BIT_ACTIVITIES}),
+ * the values are also kept as bits of <code>long</code> words, so that membership
+ * tests, bulk operations and comparisons for equality work on whole words.
+ * The ordered array is kept as well, for the positional access.
+ * The number of activities is given by <code>ActivitiesMappingStructures</code>.
  *
  * @author Peter van den Brand and Ana Karla Alves de Medeiros
  * @author Anton Galaev
@@ -20,9 +26,21 @@ import java.util.Map;
  */
 public class HNSubSet implements WritableComparable<HNSubSet> {
 
+    /**
+     * Maximum number of activities, for which the bits are used.
+     */
+    public static final int MAX_BIT_ACTIVITIES = 512;
+
+    // number of activities, that fit into the bits of new subsets, 0 if the bits are not used
+    private static volatile int bitCapacity;
+
     private int[] subset;
     private int size;
     private int hash;
+    // Zobrist fingerprint: exclusive or of the keys of the values
+    private long fingerprint;
+    // the same values as bits, null if not used
+    private long[] bits;
 
     private static int[] hashValues;
 
@@ -42,6 +60,8 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
         subset = new int[10];
         size = 0;
         hash = 0;
+        fingerprint = 0;
+        bits = newBits();
     }
 
     // this constructor is only used by deepCopy
@@ -50,14 +70,128 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
         System.arraycopy(setToCopy.subset, 0, subset, 0, setToCopy.size);
         size = setToCopy.size;
         hash = setToCopy.hash;
+        fingerprint = setToCopy.fingerprint;
+        bits = setToCopy.bits == null ? null : setToCopy.bits.clone();
     }
 
-    private HNSubSet(int[] newSubset, int newSize, int newHash) {
-        // TODO Auto-generated constructor stub
+    private HNSubSet(int[] newSubset, int newSize) {
         subset = newSubset;//new int[newSubset.length];
         //		System.arraycopy(newSubset, 0, subset, 0, newSize);
         size = newSize;
-        hash = newHash;
+        // the hash and the fingerprint of the values, as they are now
+        for (int i = 0; i < size; i++) {
+            hash += hashOf(subset[i]);
+            fingerprint ^= keyOf(subset[i]);
+        }
+        fillBits();
+    }
+
+    /**
+     * Sets the number of activities, so that the subsets, created
+     * from now on, keep their values as bits. More than
+     * {@link #MAX_BIT_ACTIVITIES} activities are ignored: the subsets
+     * with larger values use the ordered array only.
+     *
+     * @param numActivities number of activities of the log
+     */
+    public static void setNumberOfActivities(int numActivities) {
+        if (numActivities > bitCapacity && numActivities <= MAX_BIT_ACTIVITIES) {
+            bitCapacity = numActivities;
+        }
+    }
+
+    private static long[] newBits() {
+        int capacity = bitCapacity;
+        return capacity == 0 ? null : new long[(capacity + 63) >>> 6];
+    }
+
+    // builds the bits from the ordered array, if the values fit into them
+    private void fillBits() {
+        int capacity = bitCapacity;
+        if (capacity != 0 && bits != null && bits.length == (capacity + 63) >>> 6) {
+            // the bits of the same length are cleared and reused
+            Arrays.fill(bits, 0L);
+        } else {
+            bits = newBits();
+        }
+        for (int i = 0; i < size && bits != null; i++) {
+            if (fits(subset[i])) {
+                bits[subset[i] >>> 6] |= 1L << subset[i];
+            } else {
+                bits = null;
+            }
+        }
+    }
+
+    // rebuilds the ordered array and the hash from the bits
+    private void fillFromBits() {
+        int cardinality = 0;
+        for (long word : bits) {
+            cardinality += Long.bitCount(word);
+        }
+        if (subset.length < cardinality) {
+            subset = new int[Math.max(cardinality, subset.length * 2)];
+        }
+        size = 0;
+        hash = 0;
+        fingerprint = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                int value = (w << 6) + Long.numberOfTrailingZeros(word);
+                subset[size++] = value;
+                hash += hashOf(value);
+                fingerprint ^= keyOf(value);
+                word &= word - 1;
+            }
+        }
+    }
+
+    private static int hashOf(int value) {
+        return hashValues[Math.abs(value % hashValues.length)];
+    }
+
+    /**
+     * Returns the Zobrist key of the value: a well-mixed 64-bit number,
+     * so that the exclusive or of the keys identifies the values
+     * with a negligible chance of collision.
+     *
+     * @param value value of a subset
+     * @return key of the value
+     */
+    static long keyOf(int value) {
+        return mix(value + 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Finalizer of the SplitMix64 generator: spreads every bit of the input
+     * over all the bits of the output.
+     *
+     * @param z input
+     * @return mixed value
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private boolean fits(int value) {
+        return value >= 0 && (value >>> 6) < bits.length;
+    }
+
+    // number of values smaller than the given one, which must fit into the bits
+    private int rank(int value) {
+        int word = value >>> 6;
+        int rank = 0;
+        for (int w = 0; w < word; w++) {
+            rank += Long.bitCount(bits[w]);
+        }
+        return rank + Long.bitCount(bits[word] & ((1L << value) - 1));
+    }
+
+    private boolean sameBits(HNSubSet other) {
+        return bits != null && other.bits != null && bits.length == other.bits.length;
     }
 
     /**
@@ -93,6 +227,9 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
      *         the given <code>value</code>, <code>false</code> otherwise.
      */
     public final boolean contains(int value) {
+        if (bits != null) {
+            return fits(value) && (bits[value >>> 6] & (1L << value)) != 0;
+        }
         return binarySearch(value) >= 0;
     }
 
@@ -116,9 +253,8 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
             newSubset[i] = oldNewIndexMap.get(subset[i]);
         }
         int newSize = size;
-        int newHash = hash;
 
-        return new HNSubSet(newSubset, newSize, newHash);
+        return new HNSubSet(newSubset, newSize);
 
     }
 
@@ -130,6 +266,18 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
      *            subset contains the values to add
      */
     public void addAll(HNSubSet toAdd) {
+        if (sameBits(toAdd)) {
+            boolean changed = false;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w] | toAdd.bits[w];
+                changed |= word != bits[w];
+                bits[w] = word;
+            }
+            if (changed) {
+                fillFromBits();
+            }
+            return;
+        }
         for (int i = 0; i < toAdd.size; i++) {
             add(toAdd.get(i));
         }
@@ -143,15 +291,28 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
      */
     public void add(int value) {
 
-        // do binary search to find position of new element
-        int pos = binarySearch(value);
+        int pos;
+        if (bits != null && !fits(value)) {
+            // the value doesn't fit, stay with the array only
+            bits = null;
+        }
+        if (bits != null) {
+            if ((bits[value >>> 6] & (1L << value)) != 0) {
+                return;
+            }
+            pos = -rank(value) - 1;
+            bits[value >>> 6] |= 1L << value;
+        } else {
+            // do binary search to find position of new element
+            pos = binarySearch(value);
+        }
 
         if (pos < 0) {
             pos = (-pos - 1);
 
             // increase capacity if needed
             if (size == subset.length) {
-                int[] newSubset = new int[subset.length * 2];
+                int[] newSubset = new int[Math.max(subset.length * 2, 4)];
 
                 System.arraycopy(subset, 0, newSubset, 0, subset.length);
                 subset = newSubset;
@@ -164,7 +325,8 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
             subset[pos] = value;
             size++;
 
-            hash += hashValues[Math.abs(value % hashValues.length)];
+            hash += hashOf(value);
+            fingerprint ^= keyOf(value);
         }
     }
 
@@ -197,13 +359,23 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
      *            integer to be removed from this <code> HNSubSetWritable</code> object
      */
     public void remove(int value) {
-        int pos = binarySearch(value);
+        int pos;
+        if (bits != null) {
+            if (!contains(value)) {
+                return;
+            }
+            pos = rank(value);
+            bits[value >>> 6] &= ~(1L << value);
+        } else {
+            pos = binarySearch(value);
+        }
 
         if (pos >= 0) {
             System.arraycopy(subset, pos + 1, subset, pos, size - pos - 1);
             size--;
 
-            hash -= hashValues[Math.abs(value % hashValues.length)];
+            hash -= hashOf(value);
+            fingerprint ^= keyOf(value);
         }
     }
 
@@ -216,6 +388,18 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
      *            <code>HNSubSetWritable</code> object
      */
     public void removeAll(HNSubSet toRemove) {
+        if (sameBits(toRemove)) {
+            boolean changed = false;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w] & ~toRemove.bits[w];
+                changed |= word != bits[w];
+                bits[w] = word;
+            }
+            if (changed) {
+                fillFromBits();
+            }
+            return;
+        }
         for (int i = 0; i < toRemove.size; i++) {
             remove(toRemove.get(i));
         }
@@ -231,6 +415,16 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
         return hash;
     }
 
+    /**
+     * Returns the Zobrist fingerprint of the values, kept up to date
+     * by every change of the subset.
+     *
+     * @return fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
     /**
      * Compares a given <code> HNSubSetWritable</code> object with this
      * <code> HNSubSetWritable</code> object. The comparison occurs in the following
@@ -280,10 +474,14 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
     public boolean equals(Object o) {
         HNSubSet set = (HNSubSet) o;
 
-        if ((set == null) || (set.size != size) || (set.hash != hash)) {
+        if ((set == null) || (set.size != size) || (set.hash != hash) || (set.fingerprint != fingerprint)) {
             return false;
         }
 
+        if (sameBits(set)) {
+            return Arrays.equals(bits, set.bits);
+        }
+
         // 'i' goes from size - 1 to 0 to gain a bit of speed
         for (int i = size - 1; i >= 0; i--) {
             if (subset[i] != set.subset[i]) {
@@ -317,26 +515,80 @@ public class HNSubSet implements WritableComparable<HNSubSet> {
     public void write(DataOutput out) throws IOException {
         out.writeInt(size);
         out.writeInt(hash);
-        IntWritable[] intWritables = new IntWritable[subset.length];
-        for (int i = 0; i < subset.length; ++i) {
-            intWritables[i] = new IntWritable(subset[i]);
-        }
-        IntArrayWritable arrayWritable = new IntArrayWritable();
-        arrayWritable.set(intWritables);
-        arrayWritable.write(out);
+        IntArrayWritable.writeArray(out, subset);
     }
 
     @Override
     public void readFields(DataInput in) throws IOException {
         size = in.readInt();
         hash = in.readInt();
-        IntArrayWritable arrayWritable = new IntArrayWritable();
-        arrayWritable.readFields(in);
-        Writable[] intWritables = arrayWritable.get();
-        subset = new int[intWritables.length];
-        for (int i = 0; i < subset.length; ++i) {
-            IntWritable writable = (IntWritable) intWritables[i];
-            subset[i] = writable.get();
+        subset = IntArrayWritable.readArray(in, subset);
+        fingerprint = 0;
+        for (int i = 0; i < size; i++) {
+            fingerprint ^= keyOf(subset[i]);
+        }
+        fillBits();
+    }
+
+    /**
+     * Writes the subset in the compact form: the size and the values
+     * as variable-length deltas from the previous value. The capacity
+     * and the hash are not written.
+     *
+     * @param out output
+     * @throws IOException
+     */
+    public void writeCompact(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, size);
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVInt(out, subset[i] - previous);
+            previous = subset[i];
+        }
+    }
+
+    /**
+     * Reads a subset, written in the compact form.
+     * The values are read into an array of the exact size,
+     * the hash is computed again.
+     *
+     * @param in input
+     * @return new subset
+     * @throws IOException
+     */
+    public static HNSubSet readCompact(DataInput in) throws IOException {
+        int size = WritableUtils.readVInt(in);
+        int[] subset = new int[size];
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += WritableUtils.readVInt(in);
+            subset[i] = previous;
+        }
+        return new HNSubSet(subset, size);
+    }
+
+    /**
+     * Reads a subset, written in the compact form, into this subset.
+     * The array of the values and the bits are reused, if they are
+     * large enough, so they must not be shared with other subsets.
+     *
+     * @param in input
+     * @throws IOException
+     */
+    public void readCompactFields(DataInput in) throws IOException {
+        size = WritableUtils.readVInt(in);
+        if (subset.length < size) {
+            subset = new int[size];
+        }
+        hash = 0;
+        fingerprint = 0;
+        int previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += WritableUtils.readVInt(in);
+            subset[i] = previous;
+            hash += hashOf(previous);
+            fingerprint ^= keyOf(previous);
         }
+        fillBits();
     }
 }
@@ -1,17 +1,21 @@
 package org.processmining.models.heuristics.impl;
 
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
 import cern.colt.matrix.DoubleFactory2D;
 import cern.colt.matrix.DoubleMatrix2D;
-import com.galaev.genminer.mapred.writables.arrays.HNSetArrayWritable;
+import com.galaev.genminer.mapred.replay.ReplayRecord;
+import com.galaev.genminer.mapred.writables.MappingRegistry;
 import com.galaev.genminer.mapred.writables.arrays.IntArrayWritable;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 import org.processmining.models.heuristics.HeuristicsNet;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -38,6 +42,52 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
     private int key; // individual's number in the population
     private int[] activitiesActualFiring; //Keeps track of how often activities have been executed during the log replay
     private DoubleMatrix2D arcUsage; //Keeps track of how often arcs have been used during the log replay
+    private ReplayRecord replayRecord; //results of the last full replay, reused by the incremental fitness (may be null)
+    private UsageForm usageForm = UsageForm.SPARSE; //form of arc usage and activities actual firing, when the net is written
+
+    /**
+     * Marker, that starts the serialized form with flags.
+     * The old form starts with the size, which is never negative.
+     */
+    public static final int FORMAT_MARKER = -1;
+    /**
+     * Flag of the serialized form: the replay record follows the net.
+     */
+    public static final int FLAG_REPLAY_RECORD = 1;
+    /**
+     * Flag of the serialized form: the id of a registered activities mapping
+     * is written instead of the mapping.
+     */
+    public static final int FLAG_MAPPING_ID = 2;
+    /**
+     * Flag of the serialized form: start/end activities and input/output sets
+     * are written in the compact form of <code>HNSubSet</code> and <code>HNSet</code>.
+     */
+    public static final int FLAG_COMPACT_SETS = 4;
+    /**
+     * Flag of the serialized form: arc usage and activities actual firing
+     * are not written, they are read as zeros.
+     */
+    public static final int FLAG_NO_USAGE = 8;
+    /**
+     * Flag of the serialized form: arc usage is written as non-zero
+     * (row, column, value) triples, activities actual firing as variable-length ints.
+     */
+    public static final int FLAG_SPARSE_USAGE = 16;
+
+    /**
+     * The ways to write arc usage and activities actual firing.
+     * They are recomputed by every fitness evaluation, so the stages,
+     * that don't need them, may drop them.
+     */
+    public enum UsageForm {
+        // the matrix as it is in memory, free slots of the hash map included
+        FULL,
+        // non-zero cells only
+        SPARSE,
+        // nothing
+        NONE
+    }
 
     //Constants used to build the string representation of a HeuristicsNet
     /**
@@ -147,11 +197,8 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
      * org.processmining.models.heuristics.impl.HeuristicsNet#resetArcUsage()
      */
     public void resetArcUsage() {
-        for (int row = 0; row < arcUsage.rows(); row++) {
-            for (int column = 0; column < arcUsage.columns(); column++) {
-                arcUsage.setQuick(row, column, 0.0);
-            }
-        }
+        // the sparse matrix just clears its cells
+        arcUsage.assign(0.0);
     }
 
     /*
@@ -563,13 +610,19 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
         //copying the fitness...
         copy.setFitness(fitness);
 
-        //copying the start/end tasks...
-        copy.setStartActivities(startActivities);
-        copy.setEndActivities(endActivities);
+        //copying the start/end tasks, the net may be read into later...
+        copy.setStartActivities(startActivities == null ? null : startActivities.deepCopy());
+        copy.setEndActivities(endActivities == null ? null : endActivities.deepCopy());
 
         // copying the key
         ((HeuristicsNetImpl) copy).setKey(key);
 
+        // sharing the replay record, it is never modified
+        ((HeuristicsNetImpl) copy).setReplayRecord(replayRecord);
+
+        // copying the form of the usage, the copy is written the same way
+        ((HeuristicsNetImpl) copy).setUsageForm(usageForm);
+
         //making deep copy of the "duplicates actual firing"...
         int[] dacCopy = new int[activitiesActualFiring.length];
         System.arraycopy(activitiesActualFiring, 0, dacCopy, 0, activitiesActualFiring.length);
@@ -604,6 +657,8 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
         //checking the the other net is not null
         if (!(other instanceof HeuristicsNet) || (other == null)) {
             return false;
+        } else if (other == this) {
+            return true;
         } else {
             //checking if the nets have the same size
             HeuristicsNet otherNet = (HeuristicsNet) other;
@@ -616,6 +671,12 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
                 return false;
             }
 
+            //nets with different fingerprints can't be equal
+            if (otherNet instanceof HeuristicsNetImpl
+                    && getFingerprint() != ((HeuristicsNetImpl) otherNet).getFingerprint()) {
+                return false;
+            }
+
             //checking if input and output sets are the same
             for (int i = 0; i < size(); i++) {
                 if (!getInputSet(i).equals(otherNet.getInputSet(i))
@@ -634,11 +695,42 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
      */
     @Override
     public int hashCode() {
-        int hashCode = activitiesMappingStructures.hashCode();
-        for (int i = 0; i < size(); i++) {
-            hashCode += ((getInputSet(i).hashCode() + getOutputSet(i).hashCode()) * 31 ^ (size - i + 1));
+        long fingerprint = getFingerprint();
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    /**
+     * Returns the structural fingerprint of the net: the mapping and,
+     * Zobrist-style, the membership of every subset in the input or output set
+     * of every activity. Equal nets have equal fingerprints, different nets
+     * have different ones with a negligible chance of collision.
+     * The subsets keep their own fingerprints up to date on every change,
+     * so the fingerprint of the net is combined from the live subsets
+     * at one step per subset, and it follows the sets and subsets,
+     * that are changed in place or shared with other nets.
+     *
+     * @return fingerprint
+     */
+    public long getFingerprint() {
+        long fingerprint = HNSubSet.mix(activitiesMappingStructures.hashCode());
+        for (int i = 0; i < size; i++) {
+            fingerprint ^= fingerprint(inputSets[i], 2L * i);
+            fingerprint ^= fingerprint(outputSets[i], 2L * i + 1);
+        }
+        return fingerprint;
+    }
+
+    // combines the fingerprints of the subsets with the place of the set
+    private static long fingerprint(HNSet set, long place) {
+        long placeKey = place * 0x9E3779B97F4A7C15L;
+        if (set == null) {
+            return HNSubSet.mix(placeKey - 1);
+        }
+        long fingerprint = 0;
+        for (int i = 0; i < set.size(); i++) {
+            fingerprint ^= HNSubSet.mix(set.get(i).getFingerprint() ^ placeKey);
         }
-        return hashCode;
+        return fingerprint;
     }
 
     /*
@@ -831,74 +923,221 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
 
     @Override
     public void write(DataOutput out) throws IOException {
+        // write flags of the form, the sets are always compact
+        int flags = FLAG_COMPACT_SETS;
+        if (replayRecord != null) {
+            flags |= FLAG_REPLAY_RECORD;
+        }
+        Integer mappingId = MappingRegistry.getId(activitiesMappingStructures);
+        if (mappingId != null) {
+            flags |= FLAG_MAPPING_ID;
+        }
+        UsageForm form = usageForm;
+        if (form == UsageForm.NONE) {
+            flags |= FLAG_NO_USAGE;
+        } else if (form == UsageForm.SPARSE) {
+            flags |= FLAG_SPARSE_USAGE;
+        }
+        out.writeInt(FORMAT_MARKER);
+        out.writeByte(flags);
         // write primitives
         out.writeInt(size);
         out.writeInt(key);
         out.writeDouble(fitness);
         // write start/end HNSubSets
-        startActivities.write(out);
-        endActivities.write(out);
-        // write mapping
-        activitiesMappingStructures.write(out);
-        // write matrix
-        ((Writable) arcUsage).write(out);
-        // write activities actual firing
-        IntWritable[] intWritables = new IntWritable[activitiesActualFiring.length];
-        for (int i = 0; i < activitiesActualFiring.length; ++i) {
-            intWritables[i] = new IntWritable(activitiesActualFiring[i]);
-        }
-        IntArrayWritable arrayWritable = new IntArrayWritable();
-        arrayWritable.set(intWritables);
-        arrayWritable.write(out);
+        startActivities.writeCompact(out);
+        endActivities.writeCompact(out);
+        // write mapping, or its id
+        if (mappingId != null) {
+            out.writeInt(mappingId);
+        } else {
+            activitiesMappingStructures.write(out);
+        }
+        // write matrix and activities actual firing
+        if (form == UsageForm.SPARSE) {
+            writeSparseUsage(out);
+        } else if (form == UsageForm.FULL) {
+            ((Writable) arcUsage).write(out);
+            IntArrayWritable.writeArray(out, activitiesActualFiring);
+        }
         // write input and output sets
-        HNSetArrayWritable hnSetArrayWritable = new HNSetArrayWritable();
-        hnSetArrayWritable.set(inputSets);
-        hnSetArrayWritable.write(out);
-        hnSetArrayWritable = new HNSetArrayWritable();
-        hnSetArrayWritable.set(outputSets);
-        hnSetArrayWritable.write(out);
+        writeCompactSets(out, inputSets);
+        writeCompactSets(out, outputSets);
+        // write replay record
+        if (replayRecord != null) {
+            replayRecord.write(out);
+        }
     }
 
+    /**
+     * Reads the net, reusing its arrays, sets and subsets, when they
+     * are large enough, as well as the arc usage matrix of the same size.
+     * So a net, that is read into, must own them: its structures must not
+     * be shared with other nets (the copies of a net don't share them).
+     *
+     * @param in input
+     * @throws IOException
+     */
     @Override
     public void readFields(DataInput in) throws IOException {
-        // read primitives
+        // read flags of the form, if there are any
+        int flags = 0;
         size = in.readInt();
+        if (size == FORMAT_MARKER) {
+            flags = in.readByte();
+            size = in.readInt();
+        }
+        // read primitives
         key = in.readInt();
         fitness = in.readDouble();
         // read start/end HNSubSets
-        startActivities.readFields(in);
-        endActivities.readFields(in);
-        // read mapping
-        activitiesMappingStructures.readFields(in);
-        // read matrix
-        ((Writable) arcUsage).readFields(in);
-        // read activities actual firing
-        IntArrayWritable arrayWritable = new IntArrayWritable();
-        arrayWritable.readFields(in);
-        Writable[] writables = arrayWritable.get();
-        activitiesActualFiring = new int[writables.length];
-        for (int i = 0; i < activitiesActualFiring.length; ++i) {
-            IntWritable writable = (IntWritable) writables[i];
-            activitiesActualFiring[i] = writable.get();
-        }
-        // read input sets
-        HNSetArrayWritable hnSetArrayWritable = new HNSetArrayWritable();
-        hnSetArrayWritable.readFields(in);
-        writables = hnSetArrayWritable.get();
-        inputSets = new HNSet[writables.length];
-        for (int i = 0; i < inputSets.length; i++) {
-            inputSets[i] = (HNSet) writables[i];
-        }
-        // read output sets
-        hnSetArrayWritable = new HNSetArrayWritable();
-        hnSetArrayWritable.readFields(in);
-        writables = hnSetArrayWritable.get();
-        outputSets = new HNSet[writables.length];
-        for (int i = 0; i < outputSets.length; i++) {
-            outputSets[i] = (HNSet) writables[i];
+        if (startActivities == null) {
+            startActivities = new HNSubSet();
+        }
+        if (endActivities == null) {
+            endActivities = new HNSubSet();
+        }
+        if ((flags & FLAG_COMPACT_SETS) != 0) {
+            startActivities.readCompactFields(in);
+            endActivities.readCompactFields(in);
+        } else {
+            startActivities.readFields(in);
+            endActivities.readFields(in);
+        }
+        // read mapping, or take the shared one by its id
+        if ((flags & FLAG_MAPPING_ID) != 0) {
+            activitiesMappingStructures = MappingRegistry.get(in.readInt());
+        } else {
+            // the current mapping may be shared, so it is not overwritten
+            activitiesMappingStructures = new ActivitiesMappingStructures();
+            activitiesMappingStructures.readFields(in);
+        }
+        // read matrix and activities actual firing
+        if ((flags & FLAG_NO_USAGE) != 0) {
+            clearUsage();
+        } else if ((flags & FLAG_SPARSE_USAGE) != 0) {
+            readSparseUsage(in);
+        } else {
+            ((Writable) arcUsage).readFields(in);
+            activitiesActualFiring = IntArrayWritable.readArray(in, activitiesActualFiring);
+        }
+        // read input and output sets
+        if ((flags & FLAG_COMPACT_SETS) != 0) {
+            inputSets = readCompactSets(in, inputSets);
+            outputSets = readCompactSets(in, outputSets);
+        } else {
+            inputSets = readSets(in, inputSets);
+            outputSets = readSets(in, outputSets);
+        }
+        // read replay record
+        replayRecord = null;
+        if ((flags & FLAG_REPLAY_RECORD) != 0) {
+            replayRecord = new ReplayRecord();
+            replayRecord.readFields(in);
+        }
+    }
+
+    private void writeSparseUsage(DataOutput out) throws IOException {
+        IntArrayList rows = new IntArrayList();
+        IntArrayList columns = new IntArrayList();
+        DoubleArrayList values = new DoubleArrayList();
+        arcUsage.getNonZeros(rows, columns, values);
+        WritableUtils.writeVInt(out, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            WritableUtils.writeVInt(out, rows.getQuick(i));
+            WritableUtils.writeVInt(out, columns.getQuick(i));
+            out.writeDouble(values.getQuick(i));
+        }
+        WritableUtils.writeVInt(out, activitiesActualFiring.length);
+        for (int firing : activitiesActualFiring) {
+            WritableUtils.writeVInt(out, firing);
+        }
+    }
+
+    private void readSparseUsage(DataInput in) throws IOException {
+        clearUsage();
+        int nonZeros = WritableUtils.readVInt(in);
+        for (int i = 0; i < nonZeros; i++) {
+            int row = WritableUtils.readVInt(in);
+            int column = WritableUtils.readVInt(in);
+            arcUsage.setQuick(row, column, in.readDouble());
+        }
+        int length = WritableUtils.readVInt(in);
+        if (activitiesActualFiring.length != length) {
+            activitiesActualFiring = new int[length];
+        }
+        for (int i = 0; i < length; i++) {
+            activitiesActualFiring[i] = WritableUtils.readVInt(in);
+        }
+    }
+
+    // empty arc usage and activities actual firing of the current size
+    private void clearUsage() {
+        if (arcUsage.rows() == size && arcUsage.columns() == size) {
+            arcUsage.assign(0.0);
+        } else {
+            arcUsage = DoubleFactory2D.sparse.make(size, size, 0.0);
+        }
+        if (activitiesActualFiring.length == size) {
+            Arrays.fill(activitiesActualFiring, 0);
+        } else {
+            activitiesActualFiring = new int[size];
+        }
+    }
+
+    private static void writeCompactSets(DataOutput out, HNSet[] sets) throws IOException {
+        WritableUtils.writeVInt(out, sets.length);
+        for (HNSet set : sets) {
+            set.writeCompact(out);
         }
     }
 
+    // reads the sets into the given ones, if there is the same number of them
+    private static HNSet[] readCompactSets(DataInput in, HNSet[] sets) throws IOException {
+        int length = WritableUtils.readVInt(in);
+        if (sets == null || sets.length != length) {
+            sets = new HNSet[length];
+        }
+        for (int i = 0; i < length; i++) {
+            if (sets[i] == null) {
+                sets[i] = HNSet.readCompact(in);
+            } else {
+                sets[i].readCompactFields(in);
+            }
+        }
+        return sets;
+    }
+
+    // reads the sets of the old form (an array writable of sets) the same way
+    private static HNSet[] readSets(DataInput in, HNSet[] sets) throws IOException {
+        int length = in.readInt();
+        if (sets == null || sets.length != length) {
+            sets = new HNSet[length];
+        }
+        for (int i = 0; i < length; i++) {
+            if (sets[i] == null) {
+                sets[i] = new HNSet();
+            }
+            sets[i].readFields(in);
+        }
+        return sets;
+    }
+
+    /**
+     * Sets the form of arc usage and activities actual firing,
+     * in which the net is written. It is not serialized itself:
+     * a net, that is read, keeps its own form.
+     *
+     * @param form usage form
+     */
+    public void setUsageForm(UsageForm form) {
+        usageForm = form;
+    }
+
+    public UsageForm getUsageForm() {
+        return usageForm;
+    }
+
     public int getKey() {
         return key;
     }
@@ -906,4 +1145,12 @@ public class HeuristicsNetImpl implements WritableComparable<HeuristicsNet>, Heu
     public void setKey(int key) {
         this.key = key;
     }
+
+    public ReplayRecord getReplayRecord() {
+        return replayRecord;
+    }
+
+    public void setReplayRecord(ReplayRecord replayRecord) {
+        this.replayRecord = replayRecord;
+    }
 }
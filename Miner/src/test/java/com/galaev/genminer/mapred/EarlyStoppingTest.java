@@ -0,0 +1,101 @@
+package com.galaev.genminer.mapred;
+
+import com.galaev.genminer.mapred.writables.FitnessStatistics;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for {@code EarlyStopping} class.
+ *
+ * @see com.galaev.genminer.mapred.EarlyStopping
+ * @author Anton Galaev
+ */
+public class EarlyStoppingTest {
+
+    private static final int NUM_GENERATIONS = 10;
+
+    @Test
+    public void testNeverStopsByDefault() {
+        EarlyStopping stopping = new EarlyStopping(new Configuration(), NUM_GENERATIONS);
+        for (int i = 1; i <= NUM_GENERATIONS; i++) {
+            assertFalse(stopping.update(i, statistics(0.5)));
+        }
+        assertNull(stopping.getReason());
+    }
+
+    @Test
+    public void testTarget() {
+        Configuration conf = new Configuration();
+        conf.set(EarlyStopping.TARGET_FITNESS, "0.9");
+        EarlyStopping stopping = new EarlyStopping(conf, NUM_GENERATIONS);
+        assertFalse(stopping.update(1, statistics(0.5)));
+        assertFalse(stopping.update(2, statistics(0.89)));
+        assertTrue(stopping.update(3, statistics(0.9)));
+        assertNotNull(stopping.getReason());
+    }
+
+    @Test
+    public void testWindow() {
+        Configuration conf = new Configuration();
+        conf.setInt(EarlyStopping.STOP_WINDOW, 2);
+        conf.set(EarlyStopping.STOP_THRESHOLD, "0.01");
+        EarlyStopping stopping = new EarlyStopping(conf, NUM_GENERATIONS);
+        assertFalse(stopping.update(1, statistics(0.1)));
+        assertFalse(stopping.update(2, statistics(0.2)));
+        // grew by 0.2 over the window
+        assertFalse(stopping.update(3, statistics(0.3)));
+        assertFalse(stopping.update(4, statistics(0.305)));
+        // grew by 0.005 over the window
+        assertTrue(stopping.update(5, statistics(0.305)));
+    }
+
+    @Test
+    public void testEmptyGeneration() {
+        Configuration conf = new Configuration();
+        conf.setInt(EarlyStopping.STOP_WINDOW, 1);
+        EarlyStopping stopping = new EarlyStopping(conf, NUM_GENERATIONS);
+        assertFalse(stopping.update(1, statistics(0.5)));
+        assertFalse(stopping.update(2, new FitnessStatistics()));
+        assertFalse(stopping.update(3, statistics(0.6)));
+    }
+
+    @Test
+    public void testSampledGenerations() {
+        Configuration conf = new Configuration();
+        conf.set(EarlyStopping.TARGET_FITNESS, "0.9");
+        conf.setInt(EarlyStopping.STOP_WINDOW, 1);
+        conf.set(MinerMapper.SAMPLE_FRACTION, "0.1");
+        conf.setInt(MinerMapper.SAMPLE_FULL_AT, 4);
+        EarlyStopping stopping = new EarlyStopping(conf, NUM_GENERATIONS);
+        // the sampled generations neither reach the target nor stall
+        assertFalse(stopping.update(1, statistics(0.95)));
+        assertFalse(stopping.update(2, statistics(0.5)));
+        assertFalse(stopping.update(3, statistics(0.5)));
+        // the window starts at the full-at generation
+        assertFalse(stopping.update(4, statistics(0.5)));
+        assertTrue(stopping.update(5, statistics(0.5)));
+    }
+
+    @Test
+    public void testCutoff() {
+        Configuration conf = new Configuration();
+        conf.set(EarlyStopping.TARGET_FITNESS, "0.3");
+        conf.set(MinerMapper.FITNESS_CUTOFF, "0.5");
+        EarlyStopping stopping = new EarlyStopping(conf, NUM_GENERATIONS);
+        // the best fitness below the cutoff may be a bound
+        assertFalse(stopping.update(1, statistics(0.4)));
+        assertTrue(stopping.update(2, statistics(0.6)));
+    }
+
+    private static FitnessStatistics statistics(double max) {
+        FitnessStatistics statistics = new FitnessStatistics();
+        statistics.add(0, max / 2);
+        statistics.add(1, max);
+        return statistics;
+    }
+}
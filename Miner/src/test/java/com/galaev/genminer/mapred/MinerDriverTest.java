@@ -47,6 +47,7 @@ import static junit.framework.Assert.assertEquals;
 public class MinerDriverTest {
 
     public static final String INPUT_PATH = "population/final/part-00000";
+    public static final String LOG_PATH = "/Users/anton/Dropbox/Coursework/logs/example-logs/exercise5.xes";
     private static XLogInfo logInfo;
 
 
@@ -54,7 +55,7 @@ public class MinerDriverTest {
     public static void setUp() throws Exception {
         XesXmlParser parser = new XesXmlParser();
         //List<XLog> logs = parser.parse(new File("/Users/anton/Downloads/Chapter_8/reviewing.xes"));
-        List<XLog> logs = parser.parse(new File("/Users/anton/Dropbox/Coursework/logs/example-logs/exercise5.xes"));
+        List<XLog> logs = parser.parse(new File(LOG_PATH));
         XLog log = logs.get(0);
         logInfo = XLogInfoFactory.createLogInfo(log);
     }
@@ -0,0 +1,322 @@
+package com.galaev.genminer.mapred;
+
+import com.galaev.genminer.mapred.log.CompiledLog;
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.replay.ReplayEngine;
+import com.galaev.genminer.mapred.replay.ReplayRecord;
+import org.deckfour.xes.classification.XEventClass;
+import org.deckfour.xes.classification.XEventClasses;
+import org.deckfour.xes.in.XesXmlParser;
+import org.deckfour.xes.info.XLogInfo;
+import org.deckfour.xes.info.XLogInfoFactory;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.ActivitiesMappingStructures;
+import org.processmining.models.heuristics.impl.ContinuousSemanticsParser;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.processmining.plugins.heuristicsnet.miner.genetic.geneticoperations.Crossover;
+import org.processmining.plugins.heuristicsnet.miner.genetic.geneticoperations.CrossoverFactory;
+import org.processmining.plugins.heuristicsnet.miner.genetic.geneticoperations.Mutation;
+import org.processmining.plugins.heuristicsnet.miner.genetic.geneticoperations.MutationFactory;
+import org.processmining.plugins.heuristicsnet.miner.genetic.miner.settings.GeneticMinerSettings;
+import org.processmining.plugins.heuristicsnet.miner.genetic.population.BuildPopulation;
+import org.processmining.plugins.heuristicsnet.miner.genetic.population.InitialPopulationFactory;
+import org.processmining.plugins.heuristicsnet.miner.genetic.population.NextPopulationFactory;
+import org.processmining.plugins.heuristicsnet.miner.genetic.selection.SelectionMethod;
+import org.processmining.plugins.heuristicsnet.miner.genetic.selection.SelectionMethodFactory;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for {@code SingleNetFitness} class: the replay engine must give
+ * exactly the same fitness as the ProM parser, the incremental mode
+ * exactly the same fitness as the full replay, and the bounded replay
+ * an upper bound of the fitness from the variants it replayed.
+ *
+ * @see com.galaev.genminer.mapred.SingleNetFitness
+ * @see com.galaev.genminer.mapred.replay.ReplayEngine
+ * @author Anton Galaev
+ */
+public class SingleNetFitnessTest {
+
+    private static final int NUM_GENERATIONS = 3;
+    private static XLogInfo logInfo;
+    private static TraceVariants variants;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        XesXmlParser parser = new XesXmlParser();
+        List<XLog> logs = parser.parse(new File(MinerDriverTest.LOG_PATH));
+        XLog log = logs.get(0);
+        logInfo = XLogInfoFactory.createLogInfo(log);
+        variants = new TraceVariants(logInfo);
+    }
+
+    @Test
+    public void testReplayMatchesParser() throws Exception {
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        Random generator = new Random(settings.getSeed());
+        HeuristicsNet[] population = createPopulation(settings, generator);
+        BuildPopulation buildNextPopulation = createBuilder(settings, generator);
+
+        SingleNetFitness fitness = new SingleNetFitness(logInfo);
+        Random parserGenerator = new Random(Long.MAX_VALUE);
+        for (int generation = 0; generation < NUM_GENERATIONS; generation++) {
+            if (generation > 0) {
+                population = buildNextPopulation.build(population);
+            }
+            for (HeuristicsNet individual : population) {
+                assertTrue(ReplayEngine.canReplay(individual));
+                double expected = parse(individual, parserGenerator);
+                double actual = fitness.calculate(individual).getFitness();
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalMatchesFullReplay() throws Exception {
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        Random generator = new Random(settings.getSeed());
+        HeuristicsNet[] population = createPopulation(settings, generator);
+        BuildPopulation buildNextPopulation = createBuilder(settings, generator);
+
+        SingleNetFitness full = new SingleNetFitness(logInfo, variants);
+        SingleNetFitness incremental = new SingleNetFitness(logInfo, variants);
+        incremental.setIncremental(true);
+        boolean reused = false;
+        for (int generation = 0; generation < NUM_GENERATIONS; generation++) {
+            if (generation > 0) {
+                // the bred nets carry the records of their parents
+                population = buildNextPopulation.build(population);
+            }
+            for (HeuristicsNet individual : population) {
+                HeuristicsNetImpl net = (HeuristicsNetImpl) individual;
+                double expected = full.calculate(net.copy()).getFitness();
+                if (generation == 0) {
+                    assertNull(net.getReplayRecord());
+                }
+                assertIncremental(expected, net, incremental);
+                reused |= incremental.getNumReplayedVariants() < variants.size();
+            }
+        }
+        assertTrue("No record was reused", reused);
+
+        HeuristicsNetImpl net = (HeuristicsNetImpl) population[0];
+        double expected = full.calculate(net.copy()).getFitness();
+        // without a record
+        net.setReplayRecord(null);
+        assertIncremental(expected, net, incremental);
+        assertEquals(variants.size(), incremental.getNumReplayedVariants());
+        // with a record of other variants
+        net.setReplayRecord(new ReplayRecord(net, variants.size() + 1, variants.getNumberOfEvents()));
+        assertIncremental(expected, net, incremental);
+        assertEquals(variants.size(), incremental.getNumReplayedVariants());
+        // with a record of another net
+        for (int i = 1; i < population.length; i++) {
+            HeuristicsNetImpl other = (HeuristicsNetImpl) population[i];
+            if (!other.equals(net) && other.getReplayRecord() != null) {
+                net.setReplayRecord(other.getReplayRecord());
+                assertIncremental(expected, net, incremental);
+                break;
+            }
+        }
+    }
+
+    // the incremental fitness must be the full one, and the net must keep the new record
+    private static void assertIncremental(double expected, HeuristicsNetImpl net, SingleNetFitness incremental) {
+        double actual = incremental.calculate(net).getFitness();
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+        ReplayRecord record = net.getReplayRecord();
+        assertNotNull(record);
+        assertTrue(record.matches(net, variants.size(), variants.getNumberOfEvents()));
+    }
+
+    @Test
+    public void testBoundedFitness() throws Exception {
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        HeuristicsNet[] population = createPopulation(settings, new Random(settings.getSeed()));
+        SingleNetFitness full = new SingleNetFitness(logInfo, variants);
+        SingleNetFitness bounded = new SingleNetFitness(logInfo, variants);
+        boolean stopped = false;
+        for (HeuristicsNet individual : population) {
+            double exact = full.calculate(individual.copy()).getFitness();
+
+            // the cutoff never stops the replay
+            bounded.setCutoff(-Double.MAX_VALUE);
+            double actual = bounded.calculate(individual.copy()).getFitness();
+            assertFalse(bounded.isStopped());
+            assertEquals(variants.size(), bounded.getNumReplayedVariants());
+            assertEquals(Double.doubleToLongBits(exact), Double.doubleToLongBits(actual));
+
+            // the cutoff stops the replay, unless the net reaches it at the end
+            for (double cutoff : new double[] {exact + 0.01, Double.MAX_VALUE}) {
+                bounded.setCutoff(cutoff);
+                HeuristicsNet net = bounded.calculate(individual.copy());
+                int numReplayed = bounded.getNumReplayedVariants();
+                if (!bounded.isStopped()) {
+                    assertEquals(variants.size(), numReplayed);
+                    assertEquals(Double.doubleToLongBits(exact), Double.doubleToLongBits(net.getFitness()));
+                    continue;
+                }
+                stopped = true;
+                assertTrue(numReplayed < variants.size());
+                assertTrue(net.getFitness() >= exact);
+                assertTrue(net.getFitness() < cutoff);
+                // the firing covers the replayed events, the rest of them count as parsed
+                assertEquals(replayedEvents(numReplayed), sum(net.getActivitiesActualFiring()));
+                double bound = parseBound(individual.copy(), numReplayed);
+                assertEquals(Double.doubleToLongBits(bound), Double.doubleToLongBits(net.getFitness()));
+            }
+        }
+        assertTrue("No replay was stopped", stopped);
+    }
+
+    // events of the first variants, the heaviest first
+    private static long replayedEvents(int numReplayed) {
+        int[] order = variants.getHeaviestFirst();
+        long events = 0;
+        for (int i = 0; i < numReplayed; i++) {
+            events += (long) variants.getTrace(order[i]).size() * variants.getCount(order[i]);
+        }
+        return events;
+    }
+
+    private static long sum(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Test
+    public void testDuplicateTasks() throws Exception {
+        XEventClasses events = logInfo.getEventClasses();
+        Map<XEventClass, Integer> numberOfActivitiesPerEvent = new HashMap<>();
+        for (XEventClass eventClass : events.getClasses()) {
+            numberOfActivitiesPerEvent.put(eventClass, numberOfActivitiesPerEvent.isEmpty() ? 2 : 1);
+        }
+        HeuristicsNet net = new HeuristicsNetImpl(new ActivitiesMappingStructures(events,
+                numberOfActivitiesPerEvent));
+        assertFalse(ReplayEngine.canReplay(net));
+
+        try {
+            new ReplayEngine(CompiledLog.compile(logInfo)).load(net);
+            fail("Duplicate tasks must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // parsed by the ProM parser instead
+        net = new SingleNetFitness(logInfo).calculate(net);
+        assertFalse(Double.isNaN(net.getFitness()));
+    }
+
+    private static HeuristicsNet[] createPopulation(GeneticMinerSettings settings, Random generator) {
+        HeuristicsNet[] population = new HeuristicsNet[settings.getPopulationSize()];
+        return InitialPopulationFactory.getPopulation(settings.getInitialPopulationType(), generator,
+                logInfo, settings.getPower()).build(population);
+    }
+
+    private static BuildPopulation createBuilder(GeneticMinerSettings settings, Random generator) {
+        SelectionMethod selectionMethod = SelectionMethodFactory.getSelectionMethods(settings.getSelectionType(),
+                generator);
+        Crossover crossover = CrossoverFactory.getCrossover(settings.getCrossoverType(), generator);
+        Mutation mutation = MutationFactory.getMutation(settings.getMutationType(), generator,
+                settings.getMutationRate());
+        return NextPopulationFactory.getPopulation(selectionMethod, generator,
+                settings.getCrossoverRate(), settings.getMutationRate(), settings.getElitismRate(), crossover,
+                mutation);
+    }
+
+    /**
+     * Computes the bound of the fitness by the ProM parser: the first variants,
+     * the heaviest first, are parsed, the events of the rest count as parsed.
+     *
+     * @param individual heuristics net
+     * @param numReplayed number of the parsed variants
+     * @return upper bound of the fitness
+     */
+    private static double parseBound(HeuristicsNet individual, int numReplayed) {
+        ContinuousSemanticsParser parser = new ContinuousSemanticsParser(individual, new Random(Long.MAX_VALUE));
+        int[] order = variants.getHeaviestFirst();
+        double numPIsWithMissingTokens = 0;
+        double numMissingTokens = 0;
+        double numPIsWithExtraTokensLeftBehind = 0;
+        double numExtraTokensLeftBehind = 0;
+        double numParsedWMEs = 0;
+        for (int i = 0; i < numReplayed; i++) {
+            int count = variants.getCount(order[i]);
+            parser.parse(variants.getTrace(order[i]));
+            if (parser.getNumMissingTokens() > 0) {
+                numPIsWithMissingTokens += count;
+                numMissingTokens += parser.getNumMissingTokens() * count;
+            }
+            if (parser.getNumExtraTokensLeftBehind() > 0) {
+                numPIsWithExtraTokensLeftBehind += count;
+                numExtraTokensLeftBehind += parser.getNumExtraTokensLeftBehind() * count;
+            }
+            numParsedWMEs += parser.getNumParsedElements() * count;
+        }
+
+        double numATEsAtLog = variants.getNumberOfEvents();
+        double numPIsAtLog = variants.getNumberOfTraces();
+        double numUnparsedEvents = numATEsAtLog - replayedEvents(numReplayed);
+        return (numParsedWMEs + numUnparsedEvents - ((numMissingTokens / (numPIsAtLog - numPIsWithMissingTokens + 1))
+                + (numExtraTokensLeftBehind / (numPIsAtLog - numPIsWithExtraTokensLeftBehind + 1)))) / numATEsAtLog;
+    }
+
+    /**
+     * Copied from the original {@code SingleNetFitness}, which parsed every trace
+     * of the log by {@code ContinuousSemanticsParser}.
+     *
+     * @param individual heuristics net
+     * @param generator random generator of the parser
+     * @return fitness of the net
+     */
+    private static double parse(HeuristicsNet individual, Random generator) {
+        ContinuousSemanticsParser parser = new ContinuousSemanticsParser(individual, generator);
+        individual.resetActivitiesActualFiring();
+        individual.resetArcUsage();
+
+        double numPIsWithMissingTokens = 0;
+        double numMissingTokens = 0;
+        double numPIsWithExtraTokensLeftBehind = 0;
+        double numExtraTokensLeftBehind = 0;
+        double numParsedWMEs = 0;
+        for (XTrace pi : logInfo.getLog()) {
+            parser.parse(pi);
+            if (parser.getNumMissingTokens() > 0) {
+                numPIsWithMissingTokens += 1;
+                numMissingTokens += parser.getNumMissingTokens();
+            }
+            if (parser.getNumExtraTokensLeftBehind() > 0) {
+                numPIsWithExtraTokensLeftBehind += 1;
+                numExtraTokensLeftBehind += parser.getNumExtraTokensLeftBehind();
+            }
+            numParsedWMEs += parser.getNumParsedElements();
+        }
+
+        double numATEsAtLog = logInfo.getNumberOfEvents();
+        double numPIsAtLog = logInfo.getNumberOfTraces();
+        double missingTokensDenominator = numPIsAtLog - numPIsWithMissingTokens + 1;
+        double unusedTokensDenominator = numPIsAtLog - numPIsWithExtraTokensLeftBehind + 1;
+        return (numParsedWMEs - ((numMissingTokens / missingTokensDenominator)
+                + (numExtraTokensLeftBehind / unusedTokensDenominator))) / numATEsAtLog;
+    }
+}
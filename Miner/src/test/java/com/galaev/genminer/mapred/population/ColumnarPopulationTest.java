@@ -0,0 +1,194 @@
+package com.galaev.genminer.mapred.population;
+
+import com.galaev.genminer.mapred.MinerDriverTest;
+import com.galaev.genminer.mapred.SingleNetFitness;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.deckfour.xes.classification.XEventClass;
+import org.deckfour.xes.classification.XEventClasses;
+import org.deckfour.xes.in.XesXmlParser;
+import org.deckfour.xes.info.XLogInfo;
+import org.deckfour.xes.info.XLogInfoFactory;
+import org.deckfour.xes.model.XLog;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.models.heuristics.impl.ActivitiesMappingStructures;
+import org.processmining.models.heuristics.impl.HNSet;
+import org.processmining.models.heuristics.impl.HNSubSet;
+import org.processmining.models.heuristics.impl.HeuristicsNetImpl;
+import org.processmining.plugins.heuristicsnet.miner.genetic.miner.settings.GeneticMinerSettings;
+import org.processmining.plugins.heuristicsnet.miner.genetic.population.InitialPopulationFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Round trips of nets through {@code ColumnarPopulation}:
+ * the decoded nets, the best individuals and the fitness statistics.
+ *
+ * @see com.galaev.genminer.mapred.population.ColumnarPopulation
+ * @author Anton Galaev
+ */
+public class ColumnarPopulationTest {
+
+    // fitness of the evaluated nets, two of them the same
+    private static final double[] FITNESS = {0.5, 0.75, 0.1, 0.75, 0.3};
+    private static List<HeuristicsNetImpl> nets = new ArrayList<>();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        XesXmlParser parser = new XesXmlParser();
+        List<XLog> logs = parser.parse(new File(MinerDriverTest.LOG_PATH));
+        XLogInfo logInfo = XLogInfoFactory.createLogInfo(logs.get(0));
+
+        // evaluated nets, with activities firing and arc usage, sharing one mapping
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        HeuristicsNet[] population = new HeuristicsNet[settings.getPopulationSize()];
+        population = InitialPopulationFactory.getPopulation(settings.getInitialPopulationType(),
+                new Random(settings.getSeed()), logInfo, settings.getPower()).build(population);
+        SingleNetFitness fitness = new SingleNetFitness(logInfo);
+        for (int i = 0; i < FITNESS.length; i++) {
+            HeuristicsNetImpl net = (HeuristicsNetImpl) fitness.calculate(population[i]);
+            net.setKey(100 + i);
+            net.setFitness(FITNESS[i]);
+            nets.add(net);
+        }
+
+        // a net of another mapping, with duplicate tasks and unset sets
+        XEventClasses events = logInfo.getEventClasses();
+        Map<XEventClass, Integer> numberOfActivitiesPerEvent = new HashMap<>();
+        for (XEventClass eventClass : events.getClasses()) {
+            numberOfActivitiesPerEvent.put(eventClass, numberOfActivitiesPerEvent.isEmpty() ? 2 : 1);
+        }
+        HeuristicsNetImpl duplicates = new HeuristicsNetImpl(new ActivitiesMappingStructures(events,
+                numberOfActivitiesPerEvent));
+        HNSubSet subset = new HNSubSet();
+        subset.add(1);
+        HNSet set = new HNSet();
+        set.add(subset);
+        duplicates.setOutputSet(0, set);
+        duplicates.getActivitiesActualFiring()[0] = 3;
+        duplicates.getArcUsage().set(0, 1, 2.5);
+        duplicates.setKey(200);
+        duplicates.setFitness(-0.25);
+        nets.add(duplicates);
+
+        // a net of an equal mapping in another instance, with a removed set
+        DataOutputBuffer out = new DataOutputBuffer();
+        nets.get(0).getActivitiesMappingStructures().write(out);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        ActivitiesMappingStructures mapping = new ActivitiesMappingStructures();
+        mapping.readFields(in);
+        HeuristicsNetImpl equalMapping = new HeuristicsNetImpl(mapping);
+        HeuristicsNetImpl source = nets.get(2);
+        for (int i = 0; i < source.size(); i++) {
+            equalMapping.setInputSet(i, i == 0 ? null : source.getInputSet(i).deepCopy());
+            equalMapping.setOutputSet(i, source.getOutputSet(i).deepCopy());
+        }
+        equalMapping.setStartActivities(source.getStartActivities().deepCopy());
+        equalMapping.setEndActivities(source.getEndActivities().deepCopy());
+        equalMapping.setKey(300);
+        equalMapping.setFitness(1.0);
+        nets.add(equalMapping);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarPopulation.write(out, nets);
+        ColumnarPopulation population = new ColumnarPopulation(ByteBuffer.wrap(out.toByteArray()));
+        assertRead(population);
+
+        // mapped from a file
+        File file = File.createTempFile("population", ".hncp");
+        try {
+            FileOutputStream fileOut = new FileOutputStream(file);
+            try {
+                ColumnarPopulation.write(fileOut, nets);
+            } finally {
+                fileOut.close();
+            }
+            assertRead(ColumnarPopulation.map(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ColumnarPopulation.write(out, new ArrayList<HeuristicsNetImpl>());
+        ColumnarPopulation population = new ColumnarPopulation(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(0, population.size());
+        assertEquals(0, population.getBest(3).length);
+        assertEquals(0.0, population.getFitnessStatistics()[1], 0.0);
+    }
+
+    private static void assertRead(ColumnarPopulation population) throws Exception {
+        assertEquals(nets.size(), population.size());
+        for (int i = 0; i < nets.size(); i++) {
+            HeuristicsNetImpl expected = nets.get(i);
+            assertEquals(expected.getKey(), population.getKey(i));
+            assertEquals(Double.doubleToLongBits(expected.getFitness()),
+                    Double.doubleToLongBits(population.getFitness(i)));
+            assertSameNet(expected, population.getNet(i));
+        }
+        // the nets of equal mappings share the decoded instance
+        ActivitiesMappingStructures mapping = population.getNet(0).getActivitiesMappingStructures();
+        assertTrue(mapping == population.getNet(1).getActivitiesMappingStructures());
+        assertTrue(mapping == population.getNet(6).getActivitiesMappingStructures());
+        assertTrue(mapping != population.getNet(5).getActivitiesMappingStructures());
+
+        // the best first, the same fitness in the order of the individuals
+        assertTrue(Arrays.equals(new int[] {6, 1, 3, 0, 4, 2, 5}, population.getBest(nets.size() + 3)));
+        assertTrue(Arrays.equals(new int[] {6, 1}, population.getBest(2)));
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (HeuristicsNetImpl net : nets) {
+            min = Math.min(min, net.getFitness());
+            max = Math.max(max, net.getFitness());
+            sum += net.getFitness();
+        }
+        double[] statistics = population.getFitnessStatistics();
+        assertEquals(min, statistics[0], 0.0);
+        assertEquals(sum / nets.size(), statistics[1], 1e-12);
+        assertEquals(max, statistics[2], 0.0);
+    }
+
+    private static void assertSameNet(HeuristicsNetImpl expected, HeuristicsNetImpl actual) {
+        assertEquals(expected.getActivitiesMappingStructures(), actual.getActivitiesMappingStructures());
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getStartActivities(), actual.getStartActivities());
+        assertEquals(expected.getEndActivities(), actual.getEndActivities());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameSet(expected.getInputSet(i), actual.getInputSet(i));
+            assertSameSet(expected.getOutputSet(i), actual.getOutputSet(i));
+        }
+        assertTrue(Arrays.equals(expected.getActivitiesActualFiring(), actual.getActivitiesActualFiring()));
+        assertEquals(expected.getArcUsage(), actual.getArcUsage());
+    }
+
+    private static void assertSameSet(HNSet expected, HNSet actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+}
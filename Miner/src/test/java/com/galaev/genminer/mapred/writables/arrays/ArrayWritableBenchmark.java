@@ -0,0 +1,126 @@
+package com.galaev.genminer.mapred.writables.arrays;
+
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the round trips of the primitive array writables against
+ * {@code ArrayWritable} of boxed values and prints the times.
+ * It is run by hand, not by the tests: the wire format
+ * is checked by {@code ArrayWritableTest}.
+ *
+ * @see com.galaev.genminer.mapred.writables.arrays.ArrayWritableTest
+ * @author Anton Galaev
+ */
+public class ArrayWritableBenchmark {
+
+    private static final int LENGTH = 4096;
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        intArrays();
+        doubleArrays();
+    }
+
+    private static void intArrays() throws Exception {
+        int[] values = new int[LENGTH];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt();
+        }
+        DataOutputBuffer out = new DataOutputBuffer();
+        DataInputBuffer in = new DataInputBuffer();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] bytes = writeBoxedInts(values);
+            in.reset(bytes, bytes.length);
+            ArrayWritable writable = new ArrayWritable(IntWritable.class);
+            writable.readFields(in);
+            Writable[] writables = writable.get();
+            int[] read = new int[writables.length];
+            for (int i = 0; i < read.length; i++) {
+                read[i] = ((IntWritable) writables[i]).get();
+            }
+        }
+        long boxedTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int[] read = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            out.reset();
+            IntArrayWritable.writeArray(out, values);
+            in.reset(out.getData(), out.getLength());
+            read = IntArrayWritable.readArray(in, read);
+        }
+        long primitiveTime = System.nanoTime() - start;
+        print("int", boxedTime, primitiveTime);
+    }
+
+    private static void doubleArrays() throws Exception {
+        double[] values = new double[LENGTH];
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+        }
+        DataOutputBuffer out = new DataOutputBuffer();
+        DataInputBuffer in = new DataInputBuffer();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            byte[] bytes = writeBoxedDoubles(values);
+            in.reset(bytes, bytes.length);
+            ArrayWritable writable = new ArrayWritable(DoubleWritable.class);
+            writable.readFields(in);
+            Writable[] writables = writable.get();
+            double[] read = new double[writables.length];
+            for (int i = 0; i < read.length; i++) {
+                read[i] = ((DoubleWritable) writables[i]).get();
+            }
+        }
+        long boxedTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double[] read = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            out.reset();
+            DoubleArrayWritable.writeArray(out, values);
+            in.reset(out.getData(), out.getLength());
+            read = DoubleArrayWritable.readArray(in, read);
+        }
+        long primitiveTime = System.nanoTime() - start;
+        print("double", boxedTime, primitiveTime);
+    }
+
+    private static byte[] writeBoxedInts(int[] values) throws Exception {
+        IntWritable[] writables = new IntWritable[values.length];
+        for (int i = 0; i < values.length; i++) {
+            writables[i] = new IntWritable(values[i]);
+        }
+        return write(new ArrayWritable(IntWritable.class, writables));
+    }
+
+    private static byte[] writeBoxedDoubles(double[] values) throws Exception {
+        DoubleWritable[] writables = new DoubleWritable[values.length];
+        for (int i = 0; i < values.length; i++) {
+            writables[i] = new DoubleWritable(values[i]);
+        }
+        return write(new ArrayWritable(DoubleWritable.class, writables));
+    }
+
+    private static byte[] write(Writable writable) throws Exception {
+        DataOutputBuffer out = new DataOutputBuffer();
+        writable.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static void print(String type, long boxedTime, long primitiveTime) {
+        System.out.println(type + "[" + LENGTH + "] x " + ROUNDS + " round trips: boxed "
+                + boxedTime / 1000000 + " ms, primitive " + primitiveTime / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,191 @@
+package com.galaev.genminer.mapred.writables.arrays;
+
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.ByteWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Round trips of the primitive array writables against
+ * {@code ArrayWritable} of boxed values, which they replaced:
+ * the bytes must be the same both ways.
+ *
+ * @author Anton Galaev
+ */
+public class ArrayWritableTest {
+
+    private static final int LENGTH = 100;
+
+    @Test
+    public void testIntArrays() throws Exception {
+        for (int[] values : new int[][] {new int[0], ints(1), ints(LENGTH)}) {
+            IntWritable[] boxed = new IntWritable[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = new IntWritable(values[i]);
+            }
+            byte[] old = write(new ArrayWritable(IntWritable.class, boxed));
+            assertTrue(Arrays.equals(old, write(new IntArrayWritable(values))));
+
+            IntArrayWritable read = new IntArrayWritable();
+            read.readFields(input(old));
+            assertTrue(Arrays.equals(values, read.get()));
+
+            ArrayWritable oldRead = new ArrayWritable(IntWritable.class);
+            oldRead.readFields(input(write(new IntArrayWritable(values))));
+            Writable[] writables = oldRead.get();
+            assertEquals(values.length, writables.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], ((IntWritable) writables[i]).get());
+            }
+        }
+    }
+
+    @Test
+    public void testDoubleArrays() throws Exception {
+        for (double[] values : new double[][] {new double[0], doubles(1), doubles(LENGTH),
+                {Double.NaN, Double.NEGATIVE_INFINITY, -0.0, Double.MIN_VALUE}}) {
+            DoubleWritable[] boxed = new DoubleWritable[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = new DoubleWritable(values[i]);
+            }
+            byte[] old = write(new ArrayWritable(DoubleWritable.class, boxed));
+            assertTrue(Arrays.equals(old, write(new DoubleArrayWritable(values))));
+
+            DoubleArrayWritable read = new DoubleArrayWritable();
+            read.readFields(input(old));
+            assertTrue(Arrays.equals(values, read.get()));
+
+            ArrayWritable oldRead = new ArrayWritable(DoubleWritable.class);
+            oldRead.readFields(input(write(new DoubleArrayWritable(values))));
+            Writable[] writables = oldRead.get();
+            assertEquals(values.length, writables.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(Double.doubleToRawLongBits(values[i]),
+                        Double.doubleToRawLongBits(((DoubleWritable) writables[i]).get()));
+            }
+        }
+    }
+
+    @Test
+    public void testByteArrays() throws Exception {
+        for (byte[] values : new byte[][] {new byte[0], bytes(1), bytes(LENGTH)}) {
+            ByteWritable[] boxed = new ByteWritable[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = new ByteWritable(values[i]);
+            }
+            byte[] old = write(new ArrayWritable(ByteWritable.class, boxed));
+            assertTrue(Arrays.equals(old, write(new ByteArrayWritable(values))));
+
+            ByteArrayWritable read = new ByteArrayWritable();
+            read.readFields(input(old));
+            assertTrue(Arrays.equals(values, read.get()));
+
+            ArrayWritable oldRead = new ArrayWritable(ByteWritable.class);
+            oldRead.readFields(input(write(new ByteArrayWritable(values))));
+            Writable[] writables = oldRead.get();
+            assertEquals(values.length, writables.length);
+            for (int i = 0; i < values.length; i++) {
+                assertEquals(values[i], ((ByteWritable) writables[i]).get());
+            }
+        }
+    }
+
+    @Test
+    public void testStringArrays() throws Exception {
+        for (String[] values : new String[][] {new String[0], {""}, {"a", "complete", "\u00e9v\u00e9nement \u4e8b\u4ef6"}}) {
+            Text[] boxed = new Text[values.length];
+            for (int i = 0; i < values.length; i++) {
+                boxed[i] = new Text(values[i]);
+            }
+            byte[] old = write(new ArrayWritable(Text.class, boxed));
+            assertTrue(Arrays.equals(old, write(new StringArrayWritable(values))));
+
+            StringArrayWritable read = new StringArrayWritable();
+            read.readFields(input(old));
+            assertTrue(Arrays.equals(values, read.get()));
+
+            ArrayWritable oldRead = new ArrayWritable(Text.class);
+            oldRead.readFields(input(write(new StringArrayWritable(values))));
+            assertTrue(Arrays.equals(values, oldRead.toStrings()));
+        }
+    }
+
+    @Test
+    public void testReusedArrays() throws Exception {
+        int[] ints = new int[LENGTH];
+        assertSame(ints, IntArrayWritable.readArray(input(write(new IntArrayWritable(ints(LENGTH)))), ints));
+        assertTrue(Arrays.equals(ints(LENGTH), ints));
+        assertNotSame(ints, IntArrayWritable.readArray(input(write(new IntArrayWritable(ints(1)))), ints));
+
+        double[] doubles = new double[LENGTH];
+        assertSame(doubles, DoubleArrayWritable.readArray(
+                input(write(new DoubleArrayWritable(doubles(LENGTH)))), doubles));
+        assertTrue(Arrays.equals(doubles(LENGTH), doubles));
+        assertNotSame(doubles, DoubleArrayWritable.readArray(
+                input(write(new DoubleArrayWritable(new double[0]))), doubles));
+
+        byte[] bytes = new byte[LENGTH];
+        assertSame(bytes, ByteArrayWritable.readArray(input(write(new ByteArrayWritable(bytes(LENGTH)))), bytes));
+        assertTrue(Arrays.equals(bytes(LENGTH), bytes));
+
+        String[] strings = {"x", "y"};
+        assertSame(strings, StringArrayWritable.readArray(
+                input(write(new StringArrayWritable(new String[] {"a", "b"}))), strings));
+        assertTrue(Arrays.equals(new String[] {"a", "b"}, strings));
+
+        // a writable, that is read into again, holds the last values only
+        IntArrayWritable writable = new IntArrayWritable();
+        writable.readFields(input(write(new IntArrayWritable(ints(LENGTH)))));
+        writable.readFields(input(write(new IntArrayWritable(new int[0]))));
+        assertEquals(0, writable.get().length);
+    }
+
+    private static int[] ints(int length) {
+        Random random = new Random(length);
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextInt();
+        }
+        return values;
+    }
+
+    private static double[] doubles(int length) {
+        Random random = new Random(length);
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble();
+        }
+        return values;
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] values = new byte[length];
+        new Random(length).nextBytes(values);
+        return values;
+    }
+
+    private static byte[] write(Writable writable) throws Exception {
+        DataOutputBuffer out = new DataOutputBuffer();
+        writable.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static DataInputBuffer input(byte[] bytes) {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        return in;
+    }
+}
@@ -0,0 +1,252 @@
+package org.processmining.models.heuristics.impl;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import com.galaev.genminer.mapred.MinerDriverTest;
+import com.galaev.genminer.mapred.SingleNetFitness;
+import com.galaev.genminer.mapred.log.TraceVariants;
+import com.galaev.genminer.mapred.replay.ReplayRecord;
+import com.galaev.genminer.mapred.writables.MappingRegistry;
+import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+import org.deckfour.xes.in.XesXmlParser;
+import org.deckfour.xes.info.XLogInfo;
+import org.deckfour.xes.info.XLogInfoFactory;
+import org.deckfour.xes.model.XLog;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.processmining.models.heuristics.HeuristicsNet;
+import org.processmining.plugins.heuristicsnet.miner.genetic.miner.settings.GeneticMinerSettings;
+import org.processmining.plugins.heuristicsnet.miner.genetic.population.InitialPopulationFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Round trips of {@code HeuristicsNetImpl} through its serialized form:
+ * every combination of the flags, and the form written before the flags.
+ * The fingerprint of a net, changed in place.
+ *
+ * @see org.processmining.models.heuristics.impl.HeuristicsNetImpl#write(java.io.DataOutput)
+ * @author Anton Galaev
+ */
+public class HeuristicsNetImplTest {
+
+    // two evaluated nets of different structure
+    private static HeuristicsNetImpl first;
+    private static HeuristicsNetImpl second;
+    private static TraceVariants variants;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        XesXmlParser parser = new XesXmlParser();
+        List<XLog> logs = parser.parse(new File(MinerDriverTest.LOG_PATH));
+        XLogInfo logInfo = XLogInfoFactory.createLogInfo(logs.get(0));
+        variants = new TraceVariants(logInfo);
+
+        GeneticMinerSettings settings = new GeneticMinerSettings();
+        HeuristicsNet[] population = new HeuristicsNet[settings.getPopulationSize()];
+        population = InitialPopulationFactory.getPopulation(settings.getInitialPopulationType(),
+                new Random(settings.getSeed()), logInfo, settings.getPower()).build(population);
+        SingleNetFitness fitness = new SingleNetFitness(logInfo, variants);
+        first = (HeuristicsNetImpl) fitness.calculate(population[0]);
+        first.setKey(7);
+        for (int i = 1; i < population.length && second == null; i++) {
+            if (!population[i].equals(first)) {
+                second = (HeuristicsNetImpl) fitness.calculate(population[i]);
+                second.setKey(11);
+            }
+        }
+        assertNotNull(second);
+    }
+
+    @After
+    public void tearDown() {
+        MappingRegistry.clear();
+        first.setReplayRecord(null);
+        first.setUsageForm(HeuristicsNetImpl.UsageForm.SPARSE);
+        second.setUsageForm(HeuristicsNetImpl.UsageForm.SPARSE);
+    }
+
+    @Test
+    public void testFlagCombinations() throws Exception {
+        for (HeuristicsNetImpl.UsageForm form : HeuristicsNetImpl.UsageForm.values()) {
+            for (boolean mappingId : new boolean[] {false, true}) {
+                for (boolean record : new boolean[] {false, true}) {
+                    roundTrip(form, mappingId, record);
+                }
+            }
+        }
+    }
+
+    private void roundTrip(HeuristicsNetImpl.UsageForm form, boolean mappingId, boolean record) throws Exception {
+        String combination = form + ", mapping id " + mappingId + ", replay record " + record;
+        MappingRegistry.clear();
+        if (mappingId) {
+            MappingRegistry.register(first.getActivitiesMappingStructures());
+        }
+        first.setReplayRecord(record ? new ReplayRecord(first, variants.size(), variants.getNumberOfEvents()) : null);
+        first.setUsageForm(form);
+        byte[] bytes = write(first);
+
+        int flags = bytes[4];
+        assertEquals(combination, HeuristicsNetImpl.FORMAT_MARKER, ByteBuffer.wrap(bytes).getInt(0));
+        assertTrue(combination, (flags & HeuristicsNetImpl.FLAG_COMPACT_SETS) != 0);
+        assertEquals(combination, mappingId, (flags & HeuristicsNetImpl.FLAG_MAPPING_ID) != 0);
+        assertEquals(combination, record, (flags & HeuristicsNetImpl.FLAG_REPLAY_RECORD) != 0);
+        assertEquals(combination, form == HeuristicsNetImpl.UsageForm.NONE,
+                (flags & HeuristicsNetImpl.FLAG_NO_USAGE) != 0);
+        assertEquals(combination, form == HeuristicsNetImpl.UsageForm.SPARSE,
+                (flags & HeuristicsNetImpl.FLAG_SPARSE_USAGE) != 0);
+
+        // into a new net, and into a net, that holds another one
+        HeuristicsNetImpl reused = new HeuristicsNetImpl();
+        second.setUsageForm(form);
+        read(reused, write(second));
+        for (HeuristicsNetImpl net : new HeuristicsNetImpl[] {new HeuristicsNetImpl(), reused}) {
+            read(net, bytes);
+            assertSameNet(combination, first, net, form != HeuristicsNetImpl.UsageForm.NONE);
+            assertEquals(combination, record, net.getReplayRecord() != null);
+            if (mappingId) {
+                assertTrue(combination, first.getActivitiesMappingStructures() == net.getActivitiesMappingStructures());
+            }
+            // the same net again, when the read net is written
+            net.setUsageForm(form);
+            HeuristicsNetImpl again = new HeuristicsNetImpl();
+            read(again, write(net));
+            assertSameNet(combination, first, again, form != HeuristicsNetImpl.UsageForm.NONE);
+            // and when its copy is written
+            HeuristicsNetImpl copy = (HeuristicsNetImpl) net.copy();
+            assertEquals(combination, form, copy.getUsageForm());
+            byte[] copyBytes = write(copy);
+            assertEquals(combination, bytes[4], copyBytes[4]);
+            read(again, copyBytes);
+            assertSameNet(combination, first, again, form != HeuristicsNetImpl.UsageForm.NONE);
+        }
+    }
+
+    @Test
+    public void testLegacyForm() throws Exception {
+        byte[] bytes = writeLegacy(first);
+        assertEquals(first.size(), ByteBuffer.wrap(bytes).getInt(0));
+
+        // into a net, that holds another one in the current form
+        HeuristicsNetImpl reused = new HeuristicsNetImpl();
+        read(reused, write(second));
+        read(reused, bytes);
+        assertSameNet("legacy", first, reused, true);
+        assertNull(reused.getReplayRecord());
+
+        read(reused, writeLegacy(second));
+        assertSameNet("legacy", second, reused, true);
+    }
+
+    @Test
+    public void testFingerprintFollowsChangesInPlace() {
+        HeuristicsNetImpl copy = (HeuristicsNetImpl) first.copy();
+        assertEquals(first, copy);
+        assertEquals(first.hashCode(), copy.hashCode());
+
+        // a subset, changed through the getter, and changed back
+        int activity = 0;
+        while (copy.getInputSet(activity) == null || copy.getInputSet(activity).size() == 0) {
+            activity++;
+        }
+        HNSubSet subset = copy.getInputSet(activity).get(0);
+        int value = 0;
+        while (subset.contains(value)) {
+            value++;
+        }
+        long fingerprint = copy.getFingerprint();
+        subset.add(value);
+        assertFalse(fingerprint == copy.getFingerprint());
+        assertFalse(first.equals(copy));
+        subset.remove(value);
+        assertEquals(fingerprint, copy.getFingerprint());
+        assertEquals(first, copy);
+
+        // a set, replaced in the array of the sets
+        HNSet[] inputSets = copy.getInputSets();
+        HNSet inputSet = inputSets[activity];
+        inputSets[activity] = new HNSet();
+        assertFalse(fingerprint == copy.getFingerprint());
+        assertFalse(first.equals(copy));
+        inputSets[activity] = inputSet;
+        assertEquals(first, copy);
+        assertEquals(first.hashCode(), copy.hashCode());
+    }
+
+    private static void assertSameNet(String message, HeuristicsNetImpl expected, HeuristicsNetImpl actual,
+                                   boolean usage) {
+        assertEquals(message, expected, actual);
+        assertEquals(message, expected.getKey(), actual.getKey());
+        assertEquals(message, Double.doubleToLongBits(expected.getFitness()),
+                Double.doubleToLongBits(actual.getFitness()));
+        assertEquals(message, expected.getStartActivities(), actual.getStartActivities());
+        assertEquals(message, expected.getEndActivities(), actual.getEndActivities());
+        assertEquals(message, expected.getActivitiesMappingStructures(), actual.getActivitiesMappingStructures());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.getInputSet(i), actual.getInputSet(i));
+            assertEquals(message, expected.getOutputSet(i), actual.getOutputSet(i));
+        }
+        DoubleMatrix2D arcUsage = actual.getArcUsage();
+        if (usage) {
+            assertEquals(message, expected.getArcUsage(), arcUsage);
+            assertTrue(message, Arrays.equals(expected.getActivitiesActualFiring(),
+                    actual.getActivitiesActualFiring()));
+        } else {
+            assertEquals(message, 0.0, arcUsage.zSum(), 0.0);
+            assertTrue(message, Arrays.equals(new int[expected.size()], actual.getActivitiesActualFiring()));
+        }
+    }
+
+    /**
+     * Writes the net the way it was written before the flags:
+     * the sets and the firing in the form of {@code ArrayWritable}.
+     */
+    private static byte[] writeLegacy(HeuristicsNetImpl net) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeInt(net.size());
+        out.writeInt(net.getKey());
+        out.writeDouble(net.getFitness());
+        net.getStartActivities().write(out);
+        net.getEndActivities().write(out);
+        net.getActivitiesMappingStructures().write(out);
+        ((Writable) net.getArcUsage()).write(out);
+        int[] firing = net.getActivitiesActualFiring();
+        IntWritable[] intWritables = new IntWritable[firing.length];
+        for (int i = 0; i < firing.length; i++) {
+            intWritables[i] = new IntWritable(firing[i]);
+        }
+        new ArrayWritable(IntWritable.class, intWritables).write(out);
+        new ArrayWritable(HNSet.class, net.getInputSets()).write(out);
+        new ArrayWritable(HNSet.class, net.getOutputSets()).write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static byte[] write(HeuristicsNetImpl net) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        net.write(out);
+        return Arrays.copyOf(out.getData(), out.getLength());
+    }
+
+    private static void read(HeuristicsNetImpl net, byte[] bytes) throws IOException {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        net.readFields(in);
+        assertEquals(bytes.length, in.getPosition());
+    }
+}
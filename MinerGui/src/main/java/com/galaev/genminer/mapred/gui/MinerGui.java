@@ -1,5 +1,7 @@
 package com.galaev.genminer.mapred.gui;
 
+import com.galaev.genminer.mapred.MinerDriver;
+import com.galaev.genminer.mapred.population.ColumnarPopulation;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -66,7 +68,7 @@ public class MinerGui extends JFrame {
                         settings.getJarPath(),
                         "com.galaev.genminer.mapred.MinerDriver", settings.getInputPath(), settings.getOutputPath(),
                         "" + settings.getPopulationSize(), "" + settings.getNumGenerations(),
-                        "" + settings.getStartTime());
+                        "" + settings.getStartTime(), MinerDriver.RESULT_FORMAT + "=columnar");
                 builder.redirectErrorStream(true);
                 textArea.append("Algorithm process started...\n");
                 runButton.setEnabled(false);
@@ -103,21 +105,20 @@ public class MinerGui extends JFrame {
         // create path for reading
         Path path = new Path(settings.getOutputPath() + "/result_at_" + settings.getStartTime());
 
-        // read all the results from sequence file to the list
+        // read all the results to the list
         java.util.List<HeuristicsNetImpl> results = new ArrayList<>();
-        IntWritable key = new IntWritable();
-        HeuristicsNetImpl net = new HeuristicsNetImpl();
-        SequenceFile.Reader reader = null;
         try {
-            reader = new SequenceFile.Reader(fs, path, conf);
-            while (reader.next(key, net)) {
-                results.add(net);
-                net = new HeuristicsNetImpl();
+            if (ColumnarPopulation.isColumnar(fs, path)) {
+                // mapped, the best are decoded in their order
+                ColumnarPopulation population = ColumnarPopulation.open(fs, path);
+                for (int individual : population.getBest(population.size())) {
+                    results.add(population.getNet(individual));
+                }
+            } else {
+                readSequenceFile(fs, conf, path, results);
             }
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            IOUtils.closeStream(reader);
         }
         // create new visualizer panel
         if (visualizerPanel != null) {
@@ -132,6 +133,23 @@ public class MinerGui extends JFrame {
        // repaint();
     }
 
+    // reads all the results from sequence file to the list
+    private static void readSequenceFile(FileSystem fs, Configuration conf, Path path,
+                                         java.util.List<HeuristicsNetImpl> results) throws IOException {
+        IntWritable key = new IntWritable();
+        HeuristicsNetImpl net = new HeuristicsNetImpl();
+        SequenceFile.Reader reader = null;
+        try {
+            reader = new SequenceFile.Reader(fs, path, conf);
+            while (reader.next(key, net)) {
+                results.add(net);
+                net = new HeuristicsNetImpl();
+            }
+        } finally {
+            IOUtils.closeStream(reader);
+        }
+    }
+
     /**
      * Main method.
      * Sets look and feel and creates the frame.